@@ -0,0 +1,203 @@
+package ch.codebulb.completablefuture;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+import org.openjdk.jcstress.infra.results.LL_Result;
+import org.openjdk.jcstress.infra.results.L_Result;
+
+/**
+ * Races of concurrent {@code complete}, {@code completeExceptionally},
+ * {@code cancel} and {@code obtrude*} calls on the inputs and results of
+ * the combinators of {@link CompletableFutureUtil}.  The combinators are
+ * built before the race, so that their completion is always driven by the
+ * racing threads; an outcome where a combinator is still pending after
+ * all its inputs completed is a lost completion.
+ */
+public class CombinatorStress {
+
+    @JCStressTest
+    @Outcome(id = "[a, b]", expect = ACCEPTABLE, desc = "All values collected in order")
+    @Outcome(expect = FORBIDDEN, desc = "Completion lost or values mixed up")
+    @State
+    public static class AllOfRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<String> b = new CompletableFuture<>();
+        private final CompletableFuture<List<String>> all = CompletableFutureUtil.allOf(a, b);
+
+        @Actor
+        public void completeA() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void completeB() {
+            b.complete("b");
+        }
+
+        @Arbiter
+        public void arbiter(L_Result r) {
+            r.r1 = String.valueOf(all.getNow(null));
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "rejected, a", expect = ACCEPTABLE, desc = "Rejected after a completed")
+    @Outcome(id = "rejected, cancelled", expect = ACCEPTABLE, desc = "Rejected before a completed, a cancelled")
+    @Outcome(expect = FORBIDDEN, desc = "Rejection lost, or a left pending")
+    @State
+    public static class AllOfFailFastRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<String> b = new CompletableFuture<>();
+        private final CompletableFuture<List<String>> all = CompletableFutureUtil.allOfFailFast(Arrays.asList(a, b), true);
+
+        @Actor
+        public void completeA() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void rejectB() {
+            b.completeExceptionally(new IllegalStateException());
+        }
+
+        @Arbiter
+        public void arbiter(LL_Result r) {
+            r.r1 = describe(all);
+            r.r2 = describe(a);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = {"a, b", "a, cancelled"}, expect = ACCEPTABLE, desc = "a won")
+    @Outcome(id = {"b, a", "b, cancelled"}, expect = ACCEPTABLE, desc = "b won")
+    @Outcome(expect = FORBIDDEN, desc = "Completion lost, or the winner cancelled")
+    @State
+    public static class AnyOfRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<String> b = new CompletableFuture<>();
+        private final CompletableFuture<String> any = CompletableFutureUtil.anyOf(Arrays.asList(a, b), true);
+
+        @Actor
+        public void completeA() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void completeB() {
+            b.complete("b");
+        }
+
+        @Arbiter
+        public void arbiter(LL_Result r) {
+            r.r1 = describe(any);
+            r.r2 = describe("a".equals(r.r1) ? b : a);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = {"a, cancelled", "cancelled, cancelled"}, expect = ACCEPTABLE, desc = "Pending inputs cancelled")
+    @Outcome(expect = FORBIDDEN, desc = "Input left pending")
+    @State
+    public static class CancelRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<String> b = new CompletableFuture<>();
+        private final CompletableFuture<List<String>> all = CompletableFutureUtil.allOfCancellable(Arrays.asList(a, b));
+
+        @Actor
+        public void completeA() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void cancel() {
+            all.cancel(false);
+        }
+
+        @Arbiter
+        public void arbiter(LL_Result r) {
+            r.r1 = describe(a);
+            r.r2 = describe(b);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "[obtruded], obtruded", expect = ACCEPTABLE, desc = "Obtruded before allOf completed")
+    @Outcome(id = "[a], obtruded", expect = ACCEPTABLE, desc = "Obtruded after allOf completed")
+    @Outcome(expect = FORBIDDEN, desc = "Completion lost")
+    @State
+    public static class ObtrudeRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<List<String>> all = CompletableFutureUtil.allOf(a);
+
+        @Actor
+        public void complete() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void obtrude() {
+            a.obtrudeValue("obtruded");
+        }
+
+        @Arbiter
+        public void arbiter(LL_Result r) {
+            r.r1 = String.valueOf(all.getNow(null));
+            r.r2 = describe(a);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = {"2, 0", "2, 1"}, expect = ACCEPTABLE, desc = "Quorum of 2 reached")
+    @Outcome(expect = FORBIDDEN, desc = "Completion lost, or too many results")
+    @State
+    public static class FirstKRace {
+        private final CompletableFuture<String> a = new CompletableFuture<>();
+        private final CompletableFuture<String> b = new CompletableFuture<>();
+        private final CompletableFuture<String> c = new CompletableFuture<>();
+        private final CompletableFuture<Quorum<String>> quorum = CompletableFutureUtil.firstK(2, Arrays.asList(a, b, c));
+
+        @Actor
+        public void completeA() {
+            a.complete("a");
+        }
+
+        @Actor
+        public void completeB() {
+            b.complete("b");
+        }
+
+        @Actor
+        public void rejectC() {
+            c.completeExceptionally(new IllegalStateException());
+        }
+
+        @Arbiter
+        public void arbiter(II_Result r) {
+            Quorum<String> result = quorum.getNow(null);
+            r.r1 = result == null ? -1 : result.getResults().size();
+            r.r2 = result == null ? -1 : result.getFailures().size();
+        }
+    }
+
+    private static String describe(CompletableFuture<?> cf) {
+        if (!cf.isDone()) {
+            return "pending";
+        }
+        if (cf.isCancelled()) {
+            return "cancelled";
+        }
+        if (cf.isCompletedExceptionally()) {
+            return "rejected";
+        }
+        return String.valueOf(cf.join());
+    }
+}
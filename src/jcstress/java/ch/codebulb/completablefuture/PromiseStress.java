@@ -0,0 +1,133 @@
+package ch.codebulb.completablefuture;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+import org.openjdk.jcstress.infra.results.LI_Result;
+import org.openjdk.jcstress.infra.results.L_Result;
+import org.openjdk.jcstress.infra.results.ZZI_Result;
+
+/**
+ * Races on the lock-free state of {@link Promise}: completions against
+ * each other, and against the registration of listeners, which must
+ * each be notified exactly once.
+ */
+public class PromiseStress {
+
+    @JCStressTest
+    @Outcome(id = "true, false, 1", expect = ACCEPTABLE, desc = "Fulfilled first")
+    @Outcome(id = "false, true, 2", expect = ACCEPTABLE, desc = "Rejected first")
+    @Outcome(expect = FORBIDDEN, desc = "Not exactly one completion won")
+    @State
+    public static class CompleteRace {
+        private final Promise<String> promise = new Promise<>();
+
+        @Actor
+        public void fulfil(ZZI_Result r) {
+            r.r1 = promise.complete("Future explicitly fulfilled");
+        }
+
+        @Actor
+        public void reject(ZZI_Result r) {
+            r.r2 = promise.completeExceptionally(new IllegalStateException());
+        }
+
+        @Arbiter
+        public void arbiter(ZZI_Result r) {
+            r.r3 = !promise.isDone() ? 0 : promise.isCompletedExceptionally() ? 2 : 1;
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "Future explicitly fulfilled", expect = ACCEPTABLE, desc = "Listener notified")
+    @Outcome(expect = FORBIDDEN, desc = "Listener lost")
+    @State
+    public static class ListenerRace {
+        private final Promise<String> promise = new Promise<>();
+        private volatile Promise<String> chained;
+
+        @Actor
+        public void complete() {
+            promise.complete("Future explicitly fulfilled");
+        }
+
+        @Actor
+        public void chain() {
+            chained = promise.thenApply(it -> it);
+        }
+
+        @Arbiter
+        public void arbiter(L_Result r) {
+            r.r1 = chained.getNow(null);
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "3", expect = ACCEPTABLE, desc = "All listeners notified once")
+    @Outcome(expect = FORBIDDEN, desc = "Listener lost or notified twice")
+    @State
+    public static class ListenersRace {
+        private final Promise<String> promise = new Promise<>();
+        private final AtomicInteger notified = new AtomicInteger();
+
+        @Actor
+        public void complete() {
+            promise.complete("Future explicitly fulfilled");
+        }
+
+        @Actor
+        public void listen1() {
+            promise.onComplete((value, ex) -> notified.incrementAndGet());
+        }
+
+        @Actor
+        public void listen2() {
+            promise.onComplete((value, ex) -> notified.incrementAndGet());
+        }
+
+        @Actor
+        public void listen3() {
+            promise.onComplete((value, ex) -> notified.incrementAndGet());
+        }
+
+        @Arbiter
+        public void arbiter(I_Result r) {
+            r.r1 = notified.get();
+        }
+    }
+
+    @JCStressTest
+    @Outcome(id = "Future obtruded, 1", expect = ACCEPTABLE, desc = "Obtruded value wins, listener notified once")
+    @Outcome(expect = FORBIDDEN, desc = "Obtrusion lost, or listener lost or notified twice")
+    @State
+    public static class ObtrudeRace {
+        private final Promise<String> promise = new Promise<>();
+        private final AtomicInteger notified = new AtomicInteger();
+
+        public ObtrudeRace() {
+            promise.onComplete((value, ex) -> notified.incrementAndGet());
+        }
+
+        @Actor
+        public void complete() {
+            promise.complete("Future explicitly fulfilled");
+        }
+
+        @Actor
+        public void obtrude() {
+            promise.obtrudeValue("Future obtruded");
+        }
+
+        @Arbiter
+        public void arbiter(LI_Result r) {
+            r.r1 = promise.getNow(null);
+            r.r2 = notified.get();
+        }
+    }
+}
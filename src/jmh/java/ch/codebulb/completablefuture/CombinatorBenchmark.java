@@ -0,0 +1,119 @@
+package ch.codebulb.completablefuture;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link CompletableFutureUtil} combinators with the raw
+ * {@link CompletableFuture} ones.  Every invocation creates its input
+ * CompletableFutures, combines them and then completes them in the
+ * configured order, so both sides pay the same cost for the inputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CombinatorBenchmark {
+    public enum Completion {
+        /** all inputs are completed before they are combined */
+        COMPLETED,
+        /** inputs are completed after being combined, first to last */
+        IN_ORDER,
+        /** inputs are completed after being combined, in a shuffled order */
+        RANDOM
+    }
+
+    @Param({"2", "100", "10000", "1000000"})
+    private int size;
+
+    @Param
+    private Completion completion;
+
+    private Integer[] values;
+    private int[] order;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new Integer[size];
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+            order[i] = i;
+        }
+        if (completion == Completion.RANDOM) {
+            Random random = new Random(42);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Integer> utilAllOf() {
+        CompletableFuture<Integer>[] cfs = inputs();
+        CompletableFuture<List<Integer>> result = CompletableFutureUtil.allOf(cfs);
+        complete(cfs);
+        return result.join();
+    }
+
+    @Benchmark
+    public Void jdkAllOf() {
+        CompletableFuture<Integer>[] cfs = inputs();
+        CompletableFuture<Void> result = CompletableFuture.allOf(cfs);
+        complete(cfs);
+        return result.join();
+    }
+
+    @Benchmark
+    public Integer utilAnyOf() {
+        CompletableFuture<Integer>[] cfs = inputs();
+        CompletableFuture<Integer> result = CompletableFutureUtil.anyOf(cfs);
+        complete(cfs);
+        return result.join();
+    }
+
+    @Benchmark
+    public Object jdkAnyOf() {
+        CompletableFuture<Integer>[] cfs = inputs();
+        CompletableFuture<Object> result = CompletableFuture.anyOf(cfs);
+        complete(cfs);
+        return result.join();
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Integer>[] inputs() {
+        CompletableFuture<Integer>[] cfs = new CompletableFuture[size];
+        for (int i = 0; i < size; i++) {
+            cfs[i] = completion == Completion.COMPLETED ?
+                    CompletableFuture.completedFuture(values[i]) : new CompletableFuture<>();
+        }
+        return cfs;
+    }
+
+    private void complete(CompletableFuture<Integer>[] cfs) {
+        if (completion != Completion.COMPLETED) {
+            for (int i : order) {
+                cfs[i].complete(values[i]);
+            }
+        }
+    }
+}
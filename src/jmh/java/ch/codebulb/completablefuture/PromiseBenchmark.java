@@ -0,0 +1,88 @@
+package ch.codebulb.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Promise} with CompletableFuture on a chain of the shape
+ * {@code thenApply(...).thenApply(...).whenComplete(...)}, built on a promise
+ * completed either after ({@code pending}) or before ({@code completed}) the
+ * chain has been built, and with the same stages fused by a {@link Pipeline}.
+ * The functions pass the value on as is, so that {@code -prof gc} reports
+ * the allocations of the stages themselves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PromiseBenchmark {
+    private final String value = "Promise";
+    private final Pipeline<String, String> pipeline = Pipeline.<String> start().
+            thenApply(it -> it).
+            thenApply(it -> it).
+            whenComplete((it, err) -> {});
+
+    @Benchmark
+    public String completableFuturePending() {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> chained = promise.
+                thenApply(it -> it).
+                thenApply(it -> it).
+                whenComplete((it, err) -> {});
+        promise.complete(value);
+        return chained.join();
+    }
+
+    @Benchmark
+    public String promisePending() {
+        Promise<String> promise = new Promise<>();
+        Promise<String> chained = promise.
+                thenApply(it -> it).
+                thenApply(it -> it).
+                whenComplete((it, err) -> {});
+        promise.complete(value);
+        return chained.join();
+    }
+
+    @Benchmark
+    public String pipelinePending() {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> fused = pipeline.attach(promise);
+        promise.complete(value);
+        return fused.join();
+    }
+
+    @Benchmark
+    public String completableFutureCompleted() {
+        return CompletableFuture.completedFuture(value).
+                thenApply(it -> it).
+                thenApply(it -> it).
+                whenComplete((it, err) -> {}).
+                join();
+    }
+
+    @Benchmark
+    public String promiseCompleted() {
+        return Promise.of(value).
+                thenApply(it -> it).
+                thenApply(it -> it).
+                whenComplete((it, err) -> {}).
+                join();
+    }
+
+    @Benchmark
+    public String pipelineCompleted() {
+        return pipeline.attach(CompletableFuture.completedFuture(value)).join();
+    }
+}
@@ -0,0 +1,92 @@
+package ch.codebulb.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the failure path: a promise rejected after a
+ * {@code thenApply(...)} stage has been built on it, and recovered from.
+ * The {@code stackTrace} benchmarks reject it with a new exception and
+ * recover with {@link CompletableFuture#exceptionally(java.util.function.Function)},
+ * unwrapping the CompletionException by hand; the {@code rejected} ones
+ * reject it with a shared {@link RejectedException} and recover with
+ * {@link CompletableFutureUtil#exceptionally(CompletableFuture, java.util.function.Function)}.
+ * The {@code cancel} benchmarks complete the first of 16 inputs of
+ * {@link CompletableFutureUtil#anyOf(java.util.Collection, boolean)}, and
+ * then cancel the 15 losers either by {@link CompletableFuture#cancel(boolean)}
+ * or by letting anyOf cancel them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RejectionBenchmark {
+    private static final RejectedException REJECTED = new RejectedException("Promise rejected");
+    private static final int INPUTS = 16;
+
+    private final String value = "Promise";
+
+    @Benchmark
+    public String stackTraceExceptionally() {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> recovered = promise.
+                thenApply(it -> it).
+                exceptionally(ex -> recover(ex instanceof CompletionException ? ex.getCause() : ex));
+        promise.completeExceptionally(new IllegalStateException("Promise rejected"));
+        return recovered.join();
+    }
+
+    @Benchmark
+    public String rejectedExceptionally() {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> recovered = CompletableFutureUtil.exceptionally(promise.
+                thenApply(it -> it), this::recover);
+        promise.completeExceptionally(REJECTED);
+        return recovered.join();
+    }
+
+    @Benchmark
+    public boolean cancelInputs() {
+        List<CompletableFuture<String>> cfs = inputs();
+        CompletableFutureUtil.anyOf(cfs, false);
+        cfs.get(0).complete(value);
+        for (CompletableFuture<String> cf : cfs) {
+            cf.cancel(false);
+        }
+        return cfs.get(1).isCancelled();
+    }
+
+    @Benchmark
+    public boolean cancelLosers() {
+        List<CompletableFuture<String>> cfs = inputs();
+        CompletableFutureUtil.anyOf(cfs, true);
+        cfs.get(0).complete(value);
+        return cfs.get(1).isCancelled();
+    }
+
+    private static List<CompletableFuture<String>> inputs() {
+        List<CompletableFuture<String>> cfs = new ArrayList<>(INPUTS);
+        for (int i = 0; i < INPUTS; i++) {
+            cfs.add(new CompletableFuture<>());
+        }
+        return cfs;
+    }
+
+    private String recover(Throwable ex) {
+        return ex.getMessage();
+    }
+}
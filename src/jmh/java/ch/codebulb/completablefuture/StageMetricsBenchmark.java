@@ -0,0 +1,60 @@
+package ch.codebulb.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of {@link StageMetrics} on a chain of the shape
+ * {@code thenApply(...).thenApply(...).whenComplete(...)}, built and run on
+ * a CompletableFuture completed after the chain has been built.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StageMetricsBenchmark {
+    private final StageMetrics disabled = new StageMetrics(false);
+    private final StageMetrics enabled = new StageMetrics(true);
+
+    @Benchmark
+    public String plain() {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> chained = promise.
+                thenApply(it -> it + "1").
+                thenApply(it -> it + "2").
+                whenComplete((it, err) -> {});
+        promise.complete("Promise");
+        return chained.join();
+    }
+
+    @Benchmark
+    public String disabled() {
+        return instrumented(disabled);
+    }
+
+    @Benchmark
+    public String enabled() {
+        return instrumented(enabled);
+    }
+
+    private static String instrumented(StageMetrics metrics) {
+        CompletableFuture<String> promise = new CompletableFuture<>();
+        CompletableFuture<String> chained = promise.
+                thenApply(metrics.function("first", (String it) -> it + "1")).
+                thenApply(metrics.function("second", (String it) -> it + "2")).
+                whenComplete(metrics.action("log", (String it, Throwable err) -> {}));
+        promise.complete("Promise");
+        return chained.join();
+    }
+}
@@ -0,0 +1,24 @@
+package ch.codebulb.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Runs the asynchronous tasks started by {@link CompletableFutureUtil}.
+ * This version uses the default asynchronous execution facility of
+ * {@link CompletableFuture}; the multi-release JAR replaces it with a
+ * virtual thread based one on Java 21 and later (see src/main/java21).
+ * That version is only added to the JAR when it is built on JDK 21 or
+ * later, by the java21 profile.
+ */
+final class AsyncBackend {
+    private AsyncBackend() {}
+    
+    static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier);
+    }
+    
+    static CompletableFuture<Void> runAsync(Runnable runnable) {
+        return CompletableFuture.runAsync(runnable);
+    }
+}
@@ -0,0 +1,313 @@
+package ch.codebulb.completablefuture;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
+
+/**
+ * A pull-based asynchronous sequence of elements: each call of {@link #next()}
+ * returns a CompletableFuture of the next element, or of an empty Optional
+ * once the sequence is exhausted.  {@code next()} must only be called again
+ * once the CompletableFuture returned by the previous call has completed;
+ * elements must not be {@code null}.
+ *
+ * <p>Iterators are composed with operators, as in:
+ * <pre> {@code
+ * AsyncIterator.paged(firstToken, token -> fetchPage(token), page -> page.getNextToken())
+ *         .prefetch(2)
+ *         .mapAsync(page -> store(page))
+ *         .collect(Collectors.toList());}</pre>
+ *
+ * Without {@link #prefetch(int)}, every element is only requested once the
+ * previous one has been consumed; with it, up to the given number of
+ * elements are requested ahead of the consumer, so that fetching page
+ * {@code n + 1} overlaps with processing page {@code n}, while memory stays
+ * bounded by the prefetch window.  {@link #collect(Collector)} and
+ * {@link #forEach(Consumer)} run with a constant stack depth however many
+ * elements complete synchronously, as by {@link CompletableFutureUtil#asyncWhile(java.util.function.Supplier)}.
+ *
+ * @param <T> the type of the elements
+ */
+public abstract class AsyncIterator<T> {
+    private static final CompletableFuture<Optional<Object>> END = CompletableFuture.completedFuture(Optional.empty());
+
+    /**
+     * Returns a CompletableFuture of the next element, or of an empty
+     * Optional if there are no more elements.
+     */
+    public abstract CompletableFuture<Optional<T>> next();
+
+    /**
+     * Returns an iterator over the elements of the given iterator.
+     *
+     * @param iterator the elements
+     * @return the new iterator
+     * @throws NullPointerException if the iterator is {@code null}
+     */
+    public static <T> AsyncIterator<T> fromIterator(Iterator<? extends T> iterator) {
+        Objects.requireNonNull(iterator);
+        return new AsyncIterator<T>() {
+            @Override
+            public CompletableFuture<Optional<T>> next() {
+                return iterator.hasNext() ? CompletableFuture.completedFuture(Optional.of(iterator.next())) : end();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the pages fetched asynchronously one after
+     * the other, as by {@link CompletableFutureUtil#unfoldAsync(Object, Function, Function)}:
+     * the first page is fetched for the seed, and {@code nextSeed} derives
+     * from each fetched page the seed of the next one, e.g. a continuation
+     * token, or an empty Optional after the last page.
+     *
+     * @param seed the seed of the first page
+     * @param fetch the function starting to fetch the page of a seed
+     * @param nextSeed the function deriving the seed of the next page
+     * @return the new iterator
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <S, T> AsyncIterator<T> paged(S seed,
+            Function<? super S, ? extends CompletableFuture<? extends T>> fetch, Function<? super T, Optional<S>> nextSeed) {
+        Objects.requireNonNull(fetch);
+        Objects.requireNonNull(nextSeed);
+        return new AsyncIterator<T>() {
+            private volatile Optional<S> next = Optional.of(seed);
+
+            @Override
+            public CompletableFuture<Optional<T>> next() {
+                if (!next.isPresent()) {
+                    return end();
+                }
+                return fetch.apply(next.get()).thenApply(page -> {
+                    next = nextSeed.apply(page);
+                    return Optional.of(page);
+                });
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator which requests up to {@code depth} elements from
+     * this iterator ahead of its consumer.  The elements are still requested
+     * one after the other, and handed out in order; a failure is handed out
+     * once the elements before it have been consumed, and ends the iteration.
+     *
+     * @param depth the maximum number of elements requested ahead
+     * @return the new iterator
+     * @throws IllegalArgumentException if {@code depth} is less than 1
+     */
+    public final AsyncIterator<T> prefetch(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1: " + depth);
+        }
+        return new Prefetching<>(this, depth);
+    }
+
+    /**
+     * Returns an iterator over the results of the CompletableFutures returned
+     * by the given function for the elements of this iterator.
+     *
+     * @param fn the function returning a CompletableFuture for an element
+     * @return the new iterator
+     * @throws NullPointerException if the function is {@code null}
+     */
+    public final <R> AsyncIterator<R> mapAsync(Function<? super T, ? extends CompletableFuture<? extends R>> fn) {
+        Objects.requireNonNull(fn);
+        AsyncIterator<T> source = this;
+        return new AsyncIterator<R>() {
+            @Override
+            public CompletableFuture<Optional<R>> next() {
+                return source.next().thenCompose(it -> it.isPresent() ? fn.apply(it.get()).thenApply(Optional::of) : end());
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the elements of this iterator matching the
+     * given predicate.
+     *
+     * @param predicate the predicate
+     * @return the new iterator
+     * @throws NullPointerException if the predicate is {@code null}
+     */
+    public final AsyncIterator<T> filter(Predicate<? super T> predicate) {
+        Objects.requireNonNull(predicate);
+        AsyncIterator<T> source = this;
+        return new AsyncIterator<T>() {
+            @Override
+            public CompletableFuture<Optional<T>> next() {
+                CompletableFuture<Optional<T>> result = new CompletableFuture<>();
+                CompletableFutureUtil.asyncWhile(() -> source.next().thenApply(it -> {
+                    if (!it.isPresent() || predicate.test(it.get())) {
+                        result.complete(it);
+                        return false;
+                    }
+                    return true;
+                })).whenComplete((it, ex) -> {
+                    if (ex != null) {
+                        result.completeExceptionally(ex);
+                    }
+                });
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over at most the first {@code n} elements of this
+     * iterator.  Once they have been consumed, this iterator isn't requested
+     * any further elements.
+     *
+     * @param n the maximum number of elements
+     * @return the new iterator
+     * @throws IllegalArgumentException if {@code n} is negative
+     */
+    public final AsyncIterator<T> take(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        AsyncIterator<T> source = this;
+        AtomicLong remaining = new AtomicLong(n);
+        return new AsyncIterator<T>() {
+            @Override
+            public CompletableFuture<Optional<T>> next() {
+                return remaining.getAndDecrement() > 0 ? source.next() : end();
+            }
+        };
+    }
+
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * collecting all the elements of this iterator with the given collector,
+     * or exceptionally with a CompletionException holding the exception of
+     * the first element which failed as its cause.
+     *
+     * @param collector the collector
+     * @return a new CompletableFuture of the collected result
+     * @throws NullPointerException if the collector is {@code null}
+     */
+    public final <A, R> CompletableFuture<R> collect(Collector<? super T, A, R> collector) {
+        final A container = collector.supplier().get();
+        final BiConsumer<A, ? super T> accumulator = collector.accumulator();
+        return forEach(it -> accumulator.accept(container, it)).thenApply(it -> collector.finisher().apply(container));
+    }
+
+    /**
+     * Returns a new CompletableFuture that is completed after passing all
+     * the elements of this iterator to the given consumer, one after the
+     * other, or exceptionally with a CompletionException holding the
+     * exception of the first element which failed, or of the consumer, as
+     * its cause.
+     *
+     * @param consumer the consumer
+     * @return a new CompletableFuture that is completed after consuming
+     * all the elements
+     * @throws NullPointerException if the consumer is {@code null}
+     */
+    public final CompletableFuture<Void> forEach(Consumer<? super T> consumer) {
+        Objects.requireNonNull(consumer);
+        return CompletableFutureUtil.asyncWhile(() -> next().thenApply(it -> {
+            it.ifPresent(consumer);
+            return it.isPresent();
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<Optional<T>> end() {
+        return (CompletableFuture<Optional<T>>) (CompletableFuture<?>) END;
+    }
+
+    /**
+     * Implements {@link #prefetch(int)}.  The state is guarded by this
+     * object; the source is requested elements and the consumer is handed
+     * them outside of the lock.
+     */
+    private static final class Prefetching<T> extends AsyncIterator<T> {
+        private final AsyncIterator<T> source;
+        private final int depth;
+        private final ArrayDeque<T> ready = new ArrayDeque<>();
+        private CompletableFuture<Optional<T>> waiting;
+        private boolean fetching;
+        private boolean exhausted;
+        private Throwable failure;
+
+        private Prefetching(AsyncIterator<T> source, int depth) {
+            this.source = source;
+            this.depth = depth;
+        }
+
+        @Override
+        public CompletableFuture<Optional<T>> next() {
+            CompletableFuture<Optional<T>> result;
+            synchronized (this) {
+                if (!ready.isEmpty()) {
+                    result = CompletableFuture.completedFuture(Optional.of(ready.poll()));
+                } else if (failure != null) {
+                    result = new CompletableFuture<>();
+                    result.completeExceptionally(failure);
+                } else if (exhausted) {
+                    result = end();
+                } else {
+                    result = waiting = new CompletableFuture<>();
+                }
+            }
+            fetch();
+            return result;
+        }
+
+        private void fetch() {
+            synchronized (this) {
+                if (fetching || exhausted || failure != null || ready.size() >= depth) {
+                    return;
+                }
+                fetching = true;
+            }
+            CompletableFuture<Optional<T>> element;
+            try {
+                element = source.next();
+            } catch (Throwable ex) {
+                element = new CompletableFuture<>();
+                element.completeExceptionally(ex);
+            }
+            element.whenComplete(this::fetched);
+        }
+
+        private void fetched(Optional<T> element, Throwable ex) {
+            CompletableFuture<Optional<T>> consumer;
+            Optional<T> handedOut = null;
+            synchronized (this) {
+                fetching = false;
+                if (ex != null) {
+                    failure = ex instanceof CompletionException ? ex : new CompletionException(ex);
+                } else if (element.isPresent()) {
+                    ready.add(element.get());
+                } else {
+                    exhausted = true;
+                }
+                consumer = waiting;
+                waiting = null;
+                if (consumer != null && failure == null) {
+                    handedOut = ready.isEmpty() ? Optional.empty() : Optional.of(ready.poll());
+                }
+            }
+            if (consumer != null) {
+                if (handedOut != null) {
+                    consumer.complete(handedOut);
+                } else {
+                    consumer.completeExceptionally(failure);
+                }
+            }
+            fetch();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A cache of CompletableFutures loaded asynchronously by key.  Concurrent
+ * requests for the same key share a single loading CompletableFuture, so
+ * the loader is only called once per key while a load is in flight or its
+ * result is cached.  Loads which complete exceptionally are not cached.
+ *
+ * <p>The returned CompletableFutures can be combined directly, as in:
+ * {@code CompletableFutureUtil.allOf(keys.stream().map(cache::get))}.
+ * As they are shared among all callers, they must not be completed or
+ * cancelled by a caller; doing so evicts the entry for all of them.
+ *
+ * <p>If a maximum size is set, entries are evicted with the CLOCK
+ * algorithm, an approximation of least-recently-used: entries are queued in
+ * insertion order on a lock-free queue, and an entry reaching the head of
+ * the queue is given a second chance if it has been read since it last
+ * got there.  Reads just set a flag, and only if it isn't set yet, so that
+ * reads of hot keys neither contend on a lock nor on a cache line.  Only live
+ * entries count towards the maximum size: removed or replaced entries are
+ * skipped once they reach the head of the queue.  If
+ * an expiry time is set, entries expire that long after they have been
+ * loaded.  Expired entries are reloaded when read, and removed when they
+ * reach the head of the eviction queue or by {@link #cleanUp()}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class AsyncLoadingCache<K, V> {
+    private final Function<? super K, ? extends CompletableFuture<? extends V>> loader;
+    private final long maximumSize;
+    private final long expireAfterWriteNanos;
+    private final ConcurrentHashMap<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry<K, V>> evictionQueue = new ConcurrentLinkedQueue<>();
+    // the number of live entries on the eviction queue
+    private final AtomicInteger evictionQueueSize = new AtomicInteger();
+    // the number of entries removed or replaced since the eviction queue was last purged
+    private final AtomicInteger deadEntries = new AtomicInteger();
+
+    /**
+     * Creates a cache which keeps every successfully loaded value until
+     * it is invalidated.
+     *
+     * @param loader the function starting to load the value of a key
+     * @throws NullPointerException if the loader is {@code null}
+     */
+    public AsyncLoadingCache(Function<? super K, ? extends CompletableFuture<? extends V>> loader) {
+        this(loader, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a cache which keeps at most {@code maximumSize} entries, and
+     * keeps every successfully loaded value for at most {@code expireAfterWrite}.
+     *
+     * @param loader the function starting to load the value of a key
+     * @param maximumSize the maximum number of entries, or
+     * {@code Long.MAX_VALUE} for no limit
+     * @param expireAfterWrite how long to keep a loaded value, or
+     * {@code null} to keep it until it is evicted
+     * @throws NullPointerException if the loader is {@code null}
+     * @throws IllegalArgumentException if {@code maximumSize} is less than 1
+     * or {@code expireAfterWrite} is negative
+     */
+    public AsyncLoadingCache(Function<? super K, ? extends CompletableFuture<? extends V>> loader,
+            long maximumSize, Duration expireAfterWrite) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        if (expireAfterWrite != null && expireAfterWrite.isNegative()) {
+            throw new IllegalArgumentException("expireAfterWrite must not be negative: " + expireAfterWrite);
+        }
+        this.loader = Objects.requireNonNull(loader);
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = expireAfterWrite == null ? -1 : expireAfterWrite.toNanos();
+    }
+
+    /**
+     * Returns the CompletableFuture of the value of the given key, calling
+     * the loader if there is no such CompletableFuture yet, or if its value
+     * has expired.
+     *
+     * @param key the key
+     * @return the CompletableFuture of the value of the key
+     * @throws NullPointerException if the key is {@code null}
+     */
+    public CompletableFuture<V> get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        while (true) {
+            if (entry != null && !entry.isExpired(TimerWheel.nanoTime())) {
+                if (!entry.accessed) {
+                    entry.accessed = true;
+                }
+                return entry.future;
+            }
+            Entry<K, V> created = new Entry<>(key);
+            if (entry == null) {
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    load(created);
+                    return created.future;
+                }
+            } else if (entries.replace(key, entry, created)) {
+                removed();
+                load(created);
+                return created.future;
+            } else {
+                // another thread has replaced the expired entry first
+                entry = entries.get(key);
+            }
+        }
+    }
+
+    /**
+     * Returns a new CompletableFuture that is completed with the values of
+     * the given keys, in iteration order, as by
+     * {@link CompletableFutureUtil#allOf(java.util.Collection)}.
+     *
+     * @param keys the keys
+     * @return a new CompletableFuture that is completed with the values of
+     * the keys
+     * @throws NullPointerException if the keys or any of them are {@code null}
+     */
+    public CompletableFuture<List<V>> getAll(Iterable<? extends K> keys) {
+        List<CompletableFuture<V>> futures = new ArrayList<>();
+        for (K key : keys) {
+            futures.add(get(key));
+        }
+        return CompletableFutureUtil.allOf(futures);
+    }
+
+    /**
+     * Removes the entry of the given key, if any.  A load in flight is not
+     * cancelled, but its result won't be cached.
+     *
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        for (Entry<K, V> entry : entries.values()) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Removes all expired entries.  As expired entries are otherwise only
+     * removed lazily, calling this periodically keeps a cache without a
+     * maximum size from holding on to expired entries of keys which are
+     * never read again.
+     */
+    public void cleanUp() {
+        long now = TimerWheel.nanoTime();
+        for (Entry<K, V> entry : entries.values()) {
+            if (entry.isExpired(now)) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries, including loads in flight.
+     */
+    public long size() {
+        return entries.mappingCount();
+    }
+
+    private void load(Entry<K, V> entry) {
+        if (maximumSize != Long.MAX_VALUE) {
+            evictionQueue.add(entry);
+            evictionQueueSize.incrementAndGet();
+            evict();
+        }
+        // a caller completing the shared future exceptionally evicts the entry, too
+        entry.future.whenComplete((value, ex) -> {
+            if (ex != null) {
+                remove(entry);
+            }
+        });
+        try {
+            loader.apply(entry.key).whenComplete((value, ex) -> {
+                if (ex == null) {
+                    if (expireAfterWriteNanos >= 0) {
+                        entry.expiresAtNanos = TimerWheel.nanoTime() + expireAfterWriteNanos;
+                        entry.loaded = true;
+                    }
+                    entry.future.complete(value);
+                } else {
+                    // remove the entry first so that callers reacting to the failure can reload
+                    remove(entry);
+                    entry.future.completeExceptionally(ex instanceof CompletionException ? ex : new CompletionException(ex));
+                }
+            });
+        } catch (Throwable ex) {
+            remove(entry);
+            entry.future.completeExceptionally(new CompletionException(ex));
+        }
+    }
+
+    private void evict() {
+        long now = TimerWheel.nanoTime();
+        // bound the second chances so that concurrent reads can't keep this busy
+        int secondChances = evictionQueueSize.get();
+        while (evictionQueueSize.get() > maximumSize) {
+            Entry<K, V> entry = evictionQueue.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entries.get(entry.key) != entry) {
+                // already removed or replaced, and no longer counted
+                continue;
+            }
+            if (entry.accessed && !entry.isExpired(now) && secondChances-- > 0) {
+                entry.accessed = false;
+                evictionQueue.add(entry);
+            } else if (entries.remove(entry.key, entry)) {
+                // already off the queue, so not a dead entry
+                evictionQueueSize.decrementAndGet();
+            }
+        }
+    }
+
+    private void remove(Entry<K, V> entry) {
+        if (entries.remove(entry.key, entry)) {
+            removed();
+        }
+    }
+
+    /**
+     * Stops counting an entry which has just been removed from the map, or
+     * replaced in it; as each entry is removed at most once, it is uncounted
+     * at most once, too.
+     */
+    private void removed() {
+        if (maximumSize == Long.MAX_VALUE) {
+            return;
+        }
+        evictionQueueSize.decrementAndGet();
+        // keep dead entries from piling up on the queue while the cache is below its maximum size;
+        // purging once per maximumSize removals keeps this amortized constant
+        if (deadEntries.incrementAndGet() > maximumSize) {
+            deadEntries.set(0);
+            evictionQueue.removeIf(it -> entries.get(it.key) != it);
+        }
+    }
+
+    private static final class Entry<K, V> {
+        private final K key;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile boolean accessed;
+        private volatile boolean loaded;
+        private volatile long expiresAtNanos;
+
+        private Entry(K key) {
+            this.key = key;
+        }
+
+        private boolean isExpired(long now) {
+            return loaded && now - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Coalesces single-key loads into batches, in the manner of DataLoader:
+ * {@link #load(Object)} returns a CompletableFuture immediately, and the
+ * keys requested within a time window, or until a batch is full, are then
+ * passed to the batch function in a single call.  Each CompletableFuture
+ * is completed with the value of its key in the resulting map, or with
+ * {@code null} if the map has no such key.  If the batch function fails,
+ * or returns {@code null} or a {@code null} map, all of the
+ * CompletableFutures of the batch fail with its exception.
+ *
+ * <p>Collecting keys is lock-free: each load claims a slot of the current
+ * batch with a single atomic increment, and the load filling the last
+ * slot, or the timer closing the window, seals the batch.  Each batch has a
+ * single successor, set once by CAS, which any thread finding the batch
+ * full installs, so that no load ever waits for the thread sealing it.
+ * The batch function is never called by the loading threads;
+ * it is started asynchronously as by {@link CompletableFutureUtil#runAsync(Runnable)}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class BatchLoader<K, V> {
+    private final Function<List<K>, ? extends CompletableFuture<? extends Map<K, ? extends V>>> batchFunction;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final AtomicReference<Batch> current;
+
+    /**
+     * Creates a batch loader.
+     *
+     * @param batchFunction the function starting to load the values of a
+     * batch of distinct keys
+     * @param maxBatchSize the maximum number of keys in a batch
+     * @param maxDelay how long to wait for more keys after the first key of
+     * a batch has been requested
+     * @throws NullPointerException if the batch function or the delay is {@code null}
+     * @throws IllegalArgumentException if {@code maxBatchSize} is less than 1
+     * or {@code maxDelay} is negative
+     */
+    public BatchLoader(Function<List<K>, ? extends CompletableFuture<? extends Map<K, ? extends V>>> batchFunction,
+            int maxBatchSize, Duration maxDelay) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+        }
+        if (maxDelay.isNegative()) {
+            throw new IllegalArgumentException("maxDelay must not be negative: " + maxDelay);
+        }
+        this.batchFunction = Objects.requireNonNull(batchFunction);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.current = new AtomicReference<>(new Batch());
+    }
+
+    /**
+     * Returns a CompletableFuture of the value of the given key, which is
+     * completed once the batch containing the key has been loaded.
+     *
+     * @param key the key
+     * @return a new CompletableFuture of the value of the key
+     */
+    public CompletableFuture<V> load(K key) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        while (true) {
+            Batch batch = current.get();
+            int slot = batch.claimed.getAndIncrement();
+            if (slot < maxBatchSize) {
+                batch.add(slot, key, result);
+                return result;
+            }
+            // the batch is full or sealed: seal it, unless it is already, and move on to its successor
+            batch.seal();
+            batch.advance();
+        }
+    }
+
+    /**
+     * Returns the CompletableFutures of the values of the given keys, as by
+     * {@link #load(Object)}.
+     *
+     * @param keys the keys
+     * @return a list of new CompletableFutures of the values of the keys,
+     * in iteration order
+     */
+    public List<CompletableFuture<V>> loadMany(Iterable<? extends K> keys) {
+        List<CompletableFuture<V>> results = new ArrayList<>();
+        for (K key : keys) {
+            results.add(load(key));
+        }
+        return results;
+    }
+
+    /**
+     * Dispatches the keys collected so far right away, without waiting for
+     * the time window to close.
+     */
+    public void dispatch() {
+        Batch batch = current.get();
+        if (batch.claimed.get() > 0) {
+            batch.seal();
+        }
+    }
+
+    private final class Batch {
+        private final AtomicInteger claimed = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicBoolean sealed = new AtomicBoolean();
+        private final AtomicBoolean dispatched = new AtomicBoolean();
+        private final AtomicReference<Batch> next = new AtomicReference<>();
+        private final Object[] keys = new Object[maxBatchSize];
+        private final Object[] results = new Object[maxBatchSize];
+        private volatile int size = -1;
+        private volatile TimerWheel.Timeout timeout;
+
+        private void add(int slot, K key, CompletableFuture<V> result) {
+            keys[slot] = key;
+            results[slot] = result;
+            if (slot == 0) {
+                timeout = TimerWheel.shared().schedule(this::seal, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            // publishes the slot to whoever dispatches the batch
+            int count = written.incrementAndGet();
+            if (slot == maxBatchSize - 1) {
+                seal();
+            }
+            if (count == size) {
+                dispatchOnce();
+            }
+        }
+
+        private void seal() {
+            if (!sealed.compareAndSet(false, true)) {
+                return;
+            }
+            // keep further loads from claiming a slot
+            int count = Math.min(claimed.getAndAdd(maxBatchSize), maxBatchSize);
+            size = count;
+            advance();
+            TimerWheel.Timeout timer = timeout;
+            if (timer != null) {
+                timer.cancel();
+            }
+            if (written.get() == count) {
+                dispatchOnce();
+            }
+        }
+
+        /**
+         * Installs the successor of this batch, unless another thread has already.
+         */
+        private void advance() {
+            Batch successor = next.get();
+            if (successor == null) {
+                next.compareAndSet(null, new Batch());
+                successor = next.get();
+            }
+            current.compareAndSet(this, successor);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void dispatchOnce() {
+            if (!dispatched.compareAndSet(false, true)) {
+                return;
+            }
+            final int count = size;
+            final List<K> batchKeys = new ArrayList<>(new LinkedHashSet<>((List<K>) Arrays.asList(keys).subList(0, count)));
+            CompletableFutureUtil.runAsync(() -> {
+                try {
+                    Objects.requireNonNull(batchFunction.apply(batchKeys), "batch function returned null").
+                            handle((values, ex) -> {
+                                complete(count, values, ex);
+                                return null;
+                            });
+                } catch (Throwable ex) {
+                    fail(count, ex);
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(int count, Map<K, ? extends V> values, Throwable ex) {
+            if (ex != null) {
+                fail(count, ex);
+                return;
+            }
+            try {
+                Objects.requireNonNull(values, "batch function returned a null map");
+                for (int i = 0; i < count; i++) {
+                    ((CompletableFuture<V>) results[i]).complete(values.get(keys[i]));
+                }
+            } catch (Throwable failure) {
+                fail(count, failure);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void fail(int count, Throwable ex) {
+            CompletionException failure = ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            for (int i = 0; i < count; i++) {
+                ((CompletableFuture<V>) results[i]).completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ch.codebulb.completablefuture;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Diagnostics detecting blocking {@code join()} and {@code get()} calls on
+ * pool threads, which can starve a pool if all of its threads end up waiting
+ * for tasks queued on the very same pool.
+ *
+ * <p>While enabled, a blocking call on a monitored CompletableFuture which is
+ * not yet complete is reported to the listener once it returns, if it was
+ * made from a {@link ForkJoinWorkerThread}, or from a thread of an executor
+ * or thread factory wrapped by {@link #monitoredExecutor(Executor)} or
+ * {@link #monitoredThreadFactory(ThreadFactory)}.  The report is a {@link BlockingCall} whose stack trace is the
+ * one of the blocking call.  Monitored CompletableFutures are created with
+ * {@link #newFuture()} or {@link #monitor(CompletableFuture)}; on Java 9
+ * and later, their dependent stages are monitored, too.
+ *
+ * <p>Calls on complete CompletableFutures and calls from other threads only
+ * cost a volatile read and a thread check, and nothing is captured for them,
+ * so the detector can be left enabled e.g. in canary deployments.
+ */
+public final class BlockingDetector {
+    private static final ThreadLocal<Boolean> MONITORED_THREADS = new ThreadLocal<>();
+    private static volatile Consumer<? super BlockingCall> listener;
+
+    private BlockingDetector() {}
+
+    /**
+     * Enables reporting blocking calls to the given listener.
+     *
+     * @param listener the listener, invoked on the thread which blocked
+     */
+    public static void enable(Consumer<? super BlockingCall> listener) {
+        BlockingDetector.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Enables reporting blocking calls by printing their stack traces to
+     * the standard error stream.
+     */
+    public static void enable() {
+        enable(it -> it.printStackTrace());
+    }
+
+    public static void disable() {
+        listener = null;
+    }
+
+    public static boolean isEnabled() {
+        return listener != null;
+    }
+
+    /**
+     * Returns a new incomplete monitored CompletableFuture.
+     */
+    public static <T> CompletableFuture<T> newFuture() {
+        return new MonitoredFuture<>();
+    }
+
+    /**
+     * Returns a new monitored CompletableFuture completed with the result of
+     * the given CompletableFuture.
+     */
+    public static <T> CompletableFuture<T> monitor(CompletableFuture<T> cf) {
+        MonitoredFuture<T> result = new MonitoredFuture<>();
+        cf.whenComplete((value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns an executor running the tasks of the given executor on threads
+     * which are monitored for blocking calls.
+     */
+    public static Executor monitoredExecutor(Executor executor) {
+        Objects.requireNonNull(executor);
+        return task -> executor.execute(() -> {
+            Boolean previous = MONITORED_THREADS.get();
+            MONITORED_THREADS.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                MONITORED_THREADS.set(previous);
+            }
+        });
+    }
+
+    /**
+     * Returns a thread factory creating threads which are monitored for blocking calls.
+     */
+    public static ThreadFactory monitoredThreadFactory(ThreadFactory threadFactory) {
+        Objects.requireNonNull(threadFactory);
+        return task -> threadFactory.newThread(() -> {
+            MONITORED_THREADS.set(Boolean.TRUE);
+            task.run();
+        });
+    }
+
+    private static boolean isMonitoredThread() {
+        return Thread.currentThread() instanceof ForkJoinWorkerThread || MONITORED_THREADS.get() != null;
+    }
+
+    /**
+     * Describes a blocking call; its stack trace is the one of the call.
+     * It is only reported, never thrown.
+     */
+    public static final class BlockingCall extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final String threadName;
+        private final long blockedNanos;
+
+        private BlockingCall(String method, String threadName, long blockedNanos) {
+            super(method + "() blocked " + threadName + " for " + TimeUnit.NANOSECONDS.toMillis(blockedNanos) + " ms");
+            this.threadName = threadName;
+            this.blockedNanos = blockedNanos;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+    }
+
+    /**
+     * A CompletableFuture reporting blocking calls.
+     */
+    private static final class MonitoredFuture<T> extends CompletableFuture<T> {
+        @Override
+        public T join() {
+            if (listener == null || isDone() || !isMonitoredThread()) {
+                return super.join();
+            }
+            long start = System.nanoTime();
+            try {
+                return super.join();
+            } finally {
+                report("join", start);
+            }
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            if (listener == null || isDone() || !isMonitoredThread()) {
+                return super.get();
+            }
+            long start = System.nanoTime();
+            try {
+                return super.get();
+            } finally {
+                report("get", start);
+            }
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (listener == null || isDone() || !isMonitoredThread()) {
+                return super.get(timeout, unit);
+            }
+            long start = System.nanoTime();
+            try {
+                return super.get(timeout, unit);
+            } finally {
+                report("get", start);
+            }
+        }
+
+        // overrides CompletableFuture.newIncompleteFuture() on Java 9 and later
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new MonitoredFuture<>();
+        }
+
+        private static void report(String method, long start) {
+            long blocked = System.nanoTime() - start;
+            Consumer<? super BlockingCall> current = listener;
+            if (current != null) {
+                current.accept(new BlockingCall(method, Thread.currentThread().getName(), blocked));
+            }
+        }
+    }
+}
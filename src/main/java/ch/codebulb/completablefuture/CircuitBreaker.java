@@ -0,0 +1,257 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A circuit breaker for asynchronous calls, protecting both the latency of
+ * the callers and the capacity of their pools while a backend is degraded.
+ *
+ * <p>While closed, the breaker lets all calls pass and records the outcome
+ * of the last {@code windowSize} calls.  Once the window is full and the
+ * rate of failed calls, or of calls slower than the slow call threshold,
+ * reaches its threshold, the breaker opens: for {@code openDuration}, calls
+ * are rejected without calling the backend, with an already completed
+ * CompletableFuture failed with an {@link OpenException}.  After that, the
+ * breaker is half-open and lets a single trial call pass: if it succeeds
+ * in time, the breaker closes with an empty window, otherwise it opens again.
+ * A trial call which hasn't completed within the slow call duration, or
+ * at most within the open duration, opens the breaker again as well, so
+ * that a hanging trial call can't keep the breaker half-open.
+ *
+ * <p>All state transitions are lock-free: the state is swapped by CAS, and
+ * each closed period records into a window of its own, so that calls
+ * started before a transition can't skew the window after it.  Except for
+ * the trial call, a call that never completes is never recorded; use e.g.
+ * {@link CompletableFutureUtil#withTimeout(CompletableFuture, Duration)} to
+ * bound the calls.
+ */
+public final class CircuitBreaker {
+    private static final int RECORDED = 1;
+    private static final int FAILED = 2;
+    private static final int SLOW = 4;
+
+    private final int windowSize;
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final int slowCallThreshold;
+    private final long openNanos;
+    private final AtomicReference<Phase> phase = new AtomicReference<>();
+
+    /**
+     * Creates a breaker which only considers failed calls.
+     *
+     * @param windowSize the number of calls whose outcome is recorded
+     * @param failureRateThreshold the rate of failed calls opening the breaker,
+     * greater than 0 and at most 1
+     * @param openDuration how long to reject calls once opened
+     * @throws NullPointerException if the duration is {@code null}
+     * @throws IllegalArgumentException if any of the arguments is out of range
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, Duration openDuration) {
+        this(windowSize, failureRateThreshold, Duration.ofNanos(Long.MAX_VALUE), 1, openDuration);
+    }
+
+    /**
+     * Creates a breaker which considers both failed and slow calls.
+     *
+     * @param windowSize the number of calls whose outcome is recorded
+     * @param failureRateThreshold the rate of failed calls opening the breaker,
+     * greater than 0 and at most 1
+     * @param slowCallDuration the duration above which a call is slow
+     * @param slowCallRateThreshold the rate of slow calls opening the breaker,
+     * greater than 0 and at most 1
+     * @param openDuration how long to reject calls once opened
+     * @throws NullPointerException if any of the durations is {@code null}
+     * @throws IllegalArgumentException if any of the arguments is out of range
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, Duration slowCallDuration,
+            double slowCallRateThreshold, Duration openDuration) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1: " + windowSize);
+        }
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1) || !(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1)) {
+            throw new IllegalArgumentException("Rate thresholds must be greater than 0 and at most 1");
+        }
+        if (slowCallDuration.isNegative() || openDuration.isNegative()) {
+            throw new IllegalArgumentException("Durations must not be negative");
+        }
+        this.windowSize = windowSize;
+        this.failureThreshold = (int) Math.ceil(failureRateThreshold * windowSize);
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.slowCallThreshold = (int) Math.ceil(slowCallRateThreshold * windowSize);
+        this.openNanos = openDuration.toNanos();
+        // the window of the closed phase depends on the fields above
+        phase.set(new Closed());
+    }
+
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the CompletableFuture obtained by calling the given Supplier, if the
+     * breaker lets the call pass, once the outcome of the call has been
+     * recorded.  Otherwise, returns a CompletableFuture already failed with
+     * an {@link OpenException}, without calling the Supplier.  A Supplier
+     * throwing an exception or returning {@code null} counts as a failed call.
+     *
+     * @param supplier a function starting the call
+     * @return a new CompletableFuture of the result of the call, or a failed one
+     * @throws NullPointerException if the supplier is {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletableFuture<? extends T>> supplier) {
+        Objects.requireNonNull(supplier);
+        final Phase permit = acquire();
+        if (permit == null) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new OpenException());
+            return rejected;
+        }
+        final long start = TimerWheel.nanoTime();
+        CompletableFuture<? extends T> cf;
+        try {
+            cf = Objects.requireNonNull(supplier.get(), "supplier returned null");
+        } catch (Throwable ex) {
+            record(permit, true, TimerWheel.nanoTime() - start);
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        // completes after recording, so that callers observe the outcome recorded
+        return (CompletableFuture<T>) cf.whenComplete((value, ex) -> record(permit, ex != null, TimerWheel.nanoTime() - start));
+    }
+
+    /**
+     * Returns a Supplier making its calls through this breaker, as by
+     * {@link #call(Supplier)}.
+     *
+     * @param supplier a function starting a call
+     * @return the protected Supplier
+     * @throws NullPointerException if the supplier is {@code null}
+     */
+    public <T> Supplier<CompletableFuture<T>> protect(Supplier<? extends CompletableFuture<? extends T>> supplier) {
+        Objects.requireNonNull(supplier);
+        return () -> call(supplier);
+    }
+
+    /**
+     * Returns the current state.  An open breaker whose open duration has
+     * elapsed is reported as open until the next call.
+     */
+    public State getState() {
+        return phase.get().state();
+    }
+
+    /**
+     * Returns the phase the call is made in, or {@code null} if it is rejected.
+     */
+    private Phase acquire() {
+        while (true) {
+            Phase current = phase.get();
+            if (current instanceof Closed) {
+                return current;
+            }
+            if (current instanceof HalfOpen || TimerWheel.nanoTime() - ((Open) current).openedAt < openNanos) {
+                return null;
+            }
+            HalfOpen trial = new HalfOpen();
+            if (phase.compareAndSet(current, trial)) {
+                // reopen if the trial call hangs; its outcome would be slow anyway
+                trial.timeout = TimerWheel.shared().schedule(() -> phase.compareAndSet(trial, new Open()),
+                        Math.min(slowCallNanos, openNanos), TimeUnit.NANOSECONDS);
+                return trial;
+            }
+        }
+    }
+
+    private void record(Phase permit, boolean failed, long nanos) {
+        boolean slow = nanos > slowCallNanos;
+        if (permit instanceof HalfOpen) {
+            TimerWheel.Timeout timeout = ((HalfOpen) permit).timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            phase.compareAndSet(permit, failed || slow ? new Open() : new Closed());
+        } else if (((Closed) permit).record(failed, slow) && phase.get() == permit) {
+            phase.compareAndSet(permit, new Open());
+        }
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Signals that a call was rejected by an open breaker.  As rejections are
+     * frequent while a backend is degraded, it is a stackless {@link RejectedException}.
+     */
+    public static final class OpenException extends RejectedException {
+        private static final long serialVersionUID = 1L;
+
+        private OpenException() {
+            super("Circuit breaker is open");
+        }
+    }
+
+    private abstract static class Phase {
+        abstract State state();
+    }
+
+    /**
+     * The closed phase, with the sliding window of the outcomes of its calls:
+     * a ring of the last {@code windowSize} outcomes, and counters which are
+     * adjusted by the difference between the new and the overwritten outcome.
+     */
+    private final class Closed extends Phase {
+        private final AtomicIntegerArray outcomes = new AtomicIntegerArray(windowSize);
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger slowCalls = new AtomicInteger();
+
+        @Override
+        State state() {
+            return State.CLOSED;
+        }
+
+        /**
+         * Records the outcome of a call, and returns whether the thresholds are reached.
+         */
+        private boolean record(boolean failed, boolean slow) {
+            int outcome = RECORDED | (failed ? FAILED : 0) | (slow ? SLOW : 0);
+            int previous = outcomes.getAndSet((int) (next.getAndIncrement() % windowSize), outcome);
+            int recorded = previous == 0 ? calls.incrementAndGet() : calls.get();
+            int failedCalls = failures.addAndGet(count(outcome, FAILED) - count(previous, FAILED));
+            int slowCount = slowCalls.addAndGet(count(outcome, SLOW) - count(previous, SLOW));
+            return recorded >= windowSize && (failedCalls >= failureThreshold || slowCount >= slowCallThreshold);
+        }
+
+        private int count(int outcome, int flag) {
+            return (outcome & flag) != 0 ? 1 : 0;
+        }
+    }
+
+    private static final class Open extends Phase {
+        private final long openedAt = TimerWheel.nanoTime();
+
+        @Override
+        State state() {
+            return State.OPEN;
+        }
+    }
+
+    private static final class HalfOpen extends Phase {
+        private volatile TimerWheel.Timeout timeout;
+
+        @Override
+        State state() {
+            return State.HALF_OPEN;
+        }
+    }
+}
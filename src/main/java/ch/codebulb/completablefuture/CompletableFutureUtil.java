@@ -1,11 +1,46 @@
 package ch.codebulb.completablefuture;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CompletableFutureUtil {
+    // replaces the asynchronous backend if set, e.g. by tests running in virtual time
+    private static volatile Executor asyncExecutor;
+    
     private CompletableFutureUtil() {}
     
     /**
@@ -15,9 +50,9 @@ public class CompletableFutureUtil {
      * CompletableFuture also does so, with a CompletionException
      * holding this exception as its cause. The results,
      * if any, of the given CompletableFutures are reflected in
-     * the returned CompletableFuture. If no CompletableFutures are
-     * provided, returns a CompletableFuture completed with the value
-     * {@code null}.
+     * the returned CompletableFuture, as a fixed-size list. If no
+     * CompletableFutures are provided, returns a CompletableFuture
+     * completed with an empty list.
      *
      * <p>Among the applications of this method is to await completion
      * of a set of independent CompletableFutures before continuing a
@@ -29,15 +64,500 @@ public class CompletableFutureUtil {
      * given CompletableFutures complete
      * @throws NullPointerException if the array or any of its elements are
      * {@code null}
+     * @see #allOf(Collection)
      */
     // adapted from http://www.nurkiewicz.com/2013/05/java-8-completablefuture-in-action.html
+    @SafeVarargs
+    // the array is only read, through a list view, so it is safe to pass on
+    @SuppressWarnings("varargs")
     public static <T> CompletableFuture<List<T>> allOf(CompletableFuture<T>... cfs) {
-        CompletableFuture<Void> allDoneFuture = CompletableFuture.allOf(cfs);
-        return allDoneFuture.thenApply(it ->
-            Arrays.stream(cfs).
-                map(future -> future.join()).
-                collect(Collectors.toList())
-        );
+        return allOf(Arrays.asList(cfs));
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the given CompletableFutures complete, with a list of their results
+     * in iteration order.  If any of the given CompletableFutures
+     * complete exceptionally, then the returned CompletableFuture also
+     * does so once all of them have completed, with a CompletionException
+     * holding the exception of the first failed CompletableFuture (in
+     * iteration order) as its cause.  If the collection is empty, returns
+     * a CompletableFuture completed with an empty list.
+     *
+     * <p>Unlike {@link CompletableFuture#allOf(CompletableFuture...)}, no
+     * tree of intermediate relay futures is built: every input writes its
+     * result directly into a presized slot, and a single countdown
+     * completes the returned future when the last input completes.  The
+     * resulting list is fixed-size.
+     *
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     */
+    public static <T> CompletableFuture<List<T>> allOf(Collection<? extends CompletableFuture<? extends T>> cfs) {
+        return allOf(cfs, false, false);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the CompletableFutures of the given stream complete.
+     * This is equivalent to collecting the stream and passing it to
+     * {@link #allOf(Collection)}.
+     *
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete
+     * @throws NullPointerException if the stream or any of its elements
+     * are {@code null}
+     */
+    public static <T> CompletableFuture<List<T>> allOf(Stream<? extends CompletableFuture<? extends T>> cfs) {
+        return allOf(cfs.collect(Collectors.toList()));
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the given CompletableFutures complete, or as soon as any of them
+     * completes exceptionally.  In the latter case, the returned
+     * CompletableFuture completes exceptionally with a CompletionException
+     * holding this exception as its cause, without waiting for the
+     * remaining CompletableFutures.  Otherwise, this behaves like
+     * {@link #allOf(CompletableFuture...)}.
+     *
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete, or when the first one fails
+     * @throws NullPointerException if the array or any of its elements are
+     * {@code null}
+     * @see #allOfFailFast(Collection, boolean)
+     */
+    @SafeVarargs
+    // the array is only read, through a list view, so it is safe to pass on
+    @SuppressWarnings("varargs")
+    public static <T> CompletableFuture<List<T>> allOfFailFast(CompletableFuture<T>... cfs) {
+        return allOfFailFast(Arrays.asList(cfs), false);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the given CompletableFutures complete, or as soon as any of them
+     * completes exceptionally.  In the latter case, the returned
+     * CompletableFuture completes exceptionally with a CompletionException
+     * holding this exception as its cause, without waiting for the
+     * remaining CompletableFutures.  If {@code cancelRemaining} is
+     * {@code true}, the CompletableFutures which have not completed yet
+     * are then cancelled so that the work behind them can be abandoned.
+     * Otherwise, this behaves like {@link #allOf(Collection)}.
+     *
+     * @param cfs the CompletableFutures
+     * @param cancelRemaining whether to cancel the pending CompletableFutures
+     * once the first one has failed
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete, or when the first one fails
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     */
+    public static <T> CompletableFuture<List<T>> allOfFailFast(Collection<? extends CompletableFuture<? extends T>> cfs, boolean cancelRemaining) {
+        return allOf(cfs, true, cancelRemaining);
+    }
+    
+    private static <T> CompletableFuture<List<T>> allOf(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            boolean failFast, boolean cancelRemaining) {
+        final int size = cfs.size();
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        if (size == 0) {
+            result.complete(Collections.emptyList());
+            return result;
+        }
+        
+        final AllOfCollector<T> collector = new AllOfCollector<>(size, result, failFast, cancelRemaining ? cfs : null);
+        int index = 0;
+        for (CompletableFuture<? extends T> cf : cfs) {
+            final int slot = index++;
+            if (cf.isDone() && !cf.isCompletedExceptionally()) {
+                // already fulfilled: no need to attach a dependent stage
+                collector.set(slot, cf.getNow(null), null);
+            } else {
+                // handle rather than whenComplete: its stage completes normally, so that
+                // a failed input doesn't cost a CompletionException with its stack trace
+                cf.handle((value, ex) -> {
+                    collector.set(slot, value, ex);
+                    return null;
+                });
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed as soon as
+     * {@code k} of the given CompletableFutures have completed successfully,
+     * with their results in completion order, without waiting for the
+     * remaining ones.  The exceptions of the CompletableFutures which
+     * completed exceptionally until then are collected alongside the
+     * results.  As soon as so many of them have completed exceptionally
+     * that {@code k} successes are no longer possible, the returned
+     * CompletableFuture completes exceptionally with a CompletionException
+     * holding the exception of the last one as its cause.  If {@code k} is
+     * 0, returns a CompletableFuture completed with an empty quorum.
+     *
+     * <p>This serves e.g. replicated reads and writes, as in:
+     * {@code CompletableFutureUtil.firstK(2, Arrays.asList(read(replica1),
+     * read(replica2), read(replica3)))}.  Like {@link #allOf(Collection)},
+     * every input writes its result directly into a presized slot, here
+     * the next free one.
+     *
+     * @param k the number of successful CompletableFutures to wait for
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed when {@code k} of
+     * the given CompletableFutures have completed successfully
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     * @throws IllegalArgumentException if {@code k} is negative or greater
+     * than the number of CompletableFutures
+     */
+    public static <T> CompletableFuture<Quorum<T>> firstK(int k, Collection<? extends CompletableFuture<? extends T>> cfs) {
+        final int size = cfs.size();
+        if (k < 0 || k > size) {
+            throw new IllegalArgumentException("k must be between 0 and " + size + ": " + k);
+        }
+        final QuorumCollector<T> collector = new QuorumCollector<>(k, size);
+        if (k == 0) {
+            collector.complete();
+            return collector.result;
+        }
+        for (CompletableFuture<? extends T> cf : cfs) {
+            if (collector.result.isDone()) {
+                // already decided: don't attach to the remaining inputs
+                break;
+            }
+            if (cf.isDone() && !cf.isCompletedExceptionally()) {
+                collector.set(cf.getNow(null), null);
+            } else {
+                cf.handle((value, ex) -> {
+                    collector.set(value, ex);
+                    return null;
+                });
+            }
+        }
+        return collector.result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the results
+     * of applying the given asynchronous function to each element of the
+     * given source, in source order.  At most {@code maxInFlight} of the
+     * CompletableFutures returned by the function are pending at any time;
+     * the next element is only taken from the source once an earlier one
+     * has completed.  As soon as any of them completes exceptionally (or
+     * the function throws or returns {@code null}), the returned CompletableFuture also does so,
+     * with a CompletionException holding this exception as its cause, and
+     * no further elements are taken from the source.
+     *
+     * <p>This allows fanning out over a large source without starting all
+     * of the work at once, as in: {@code CompletableFutureUtil.mapAsync(ids,
+     * id -> CompletableFuture.supplyAsync(() -> load(id)), 16)}.
+     *
+     * @param source the elements to map
+     * @param fn the function returning a CompletableFuture for an element
+     * @param maxInFlight the maximum number of pending CompletableFutures
+     * @return a new CompletableFuture that is completed with the results of
+     * all the CompletableFutures returned by the function
+     * @throws NullPointerException if the source or the function is {@code null}
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than 1
+     */
+    public static <A, R> CompletableFuture<List<R>> mapAsync(Iterable<? extends A> source, 
+            Function<? super A, ? extends CompletableFuture<? extends R>> fn, int maxInFlight) {
+        return mapAsync(source.iterator(), fn, maxInFlight);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the results
+     * of applying the given asynchronous function to each remaining element
+     * of the given iterator, in iteration order, with at most
+     * {@code maxInFlight} of them pending at any time.
+     * The iterator is only ever advanced by one thread at a time.
+     *
+     * @param source the elements to map
+     * @param fn the function returning a CompletableFuture for an element
+     * @param maxInFlight the maximum number of pending CompletableFutures
+     * @return a new CompletableFuture that is completed with the results of
+     * all the CompletableFutures returned by the function
+     * @throws NullPointerException if the source or the function is {@code null}
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than 1
+     * @see #mapAsync(Iterable, Function, int)
+     */
+    public static <A, R> CompletableFuture<List<R>> mapAsync(Iterator<? extends A> source, 
+            Function<? super A, ? extends CompletableFuture<? extends R>> fn, int maxInFlight) {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(fn);
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        Traversal<A, R> traversal = new Traversal<>(source, fn, maxInFlight);
+        traversal.launch();
+        return traversal.result;
+    }
+    
+    /**
+     * Returns a list of new CompletableFutures which are completed with the
+     * results of the given CompletableFutures in the order in which these
+     * complete: the first returned CompletableFuture is completed with the
+     * result or exception of whichever given CompletableFuture completes
+     * first, the second one with the next one, and so on.
+     *
+     * <p>This allows processing each result as soon as it is available
+     * rather than waiting for all of them, as in:
+     * {@code CompletableFutureUtil.inCompletionOrder(cfs).forEach(it ->
+     * it.thenAccept(result -> process(result)));}.  A consumer which can
+     * only process one result at a time may instead chain on the returned
+     * CompletableFutures one after the other.
+     *
+     * @param cfs the CompletableFutures
+     * @return a list of new CompletableFutures, as many as were given,
+     * completed in completion order of the given CompletableFutures
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     */
+    public static <T> List<CompletableFuture<T>> inCompletionOrder(Collection<? extends CompletableFuture<? extends T>> cfs) {
+        final List<CompletableFuture<T>> results = new ArrayList<>(cfs.size());
+        for (int i = 0; i < cfs.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        final AtomicInteger next = new AtomicInteger();
+        for (CompletableFuture<? extends T> cf : cfs) {
+            cf.handle((value, ex) -> {
+                CompletableFuture<T> result = results.get(next.getAndIncrement());
+                if (ex == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(wrap(ex));
+                }
+                return null;
+            });
+        }
+        return results;
+    }
+    
+    /**
+     * Passes the result of each of the given CompletableFutures to the given
+     * consumer as soon as it is available, in completion order, and returns
+     * a new CompletableFuture that is completed once all of them have been
+     * consumed.  If any of the given CompletableFutures completes
+     * exceptionally, or the consumer throws, the returned CompletableFuture
+     * completes exceptionally with a CompletionException holding this
+     * exception as its cause, and no further results are consumed.
+     *
+     * <p>The consumer is invoked by the threads completing the given
+     * CompletableFutures and must thus be thread-safe.
+     *
+     * @param cfs the CompletableFutures
+     * @param consumer the action to perform on each result
+     * @return a new CompletableFuture that is completed when all of the
+     * results have been consumed
+     * @throws NullPointerException if any of the arguments or any of the
+     * collection's elements are {@code null}
+     * @see #inCompletionOrder(Collection)
+     */
+    public static <T> CompletableFuture<Void> forEachCompleted(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            Consumer<? super T> consumer) {
+        Objects.requireNonNull(consumer);
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final AtomicInteger remaining = new AtomicInteger(cfs.size());
+        if (cfs.isEmpty()) {
+            result.complete(null);
+        }
+        for (CompletableFuture<? extends T> cf : cfs) {
+            cf.handle((value, ex) -> {
+                if (result.isDone()) {
+                    return null;
+                }
+                if (ex != null) {
+                    result.completeExceptionally(wrap(ex));
+                    return null;
+                }
+                try {
+                    consumer.accept(value);
+                } catch (Throwable failure) {
+                    result.completeExceptionally(wrap(failure));
+                    return null;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete(null);
+                }
+                return null;
+            });
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the reduction
+     * of the results of the given CompletableFutures.  Each result is folded
+     * in as soon as it is available, in completion order: it is first
+     * accumulated into the identity, and this partial result is then merged
+     * into the running total with the combiner, retrying without locks under
+     * contention.  No list of the results is kept, so they can be garbage
+     * collected as soon as they have been folded in.
+     *
+     * <p>As the results are folded in any order, the combiner must be
+     * associative and commutative, the identity must be an identity for it,
+     * and the combiner must be free of side-effects as it may be retried.
+     * If any of the given CompletableFutures completes exceptionally, or
+     * a function throws, the returned CompletableFuture completes
+     * exceptionally with a CompletionException holding this exception as
+     * its cause, without waiting for the remaining CompletableFutures.
+     *
+     * @param cfs the CompletableFutures
+     * @param identity the identity value
+     * @param accumulator the function folding a result into the identity
+     * @param combiner the function merging two partial results
+     * @return a new CompletableFuture that is completed with the reduction of
+     * all the results
+     * @throws NullPointerException if the collection, any of its elements
+     * or any of the functions are {@code null}
+     */
+    public static <T, U> CompletableFuture<U> reduceAll(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            U identity, BiFunction<U, ? super T, U> accumulator, BinaryOperator<U> combiner) {
+        Objects.requireNonNull(accumulator);
+        Objects.requireNonNull(combiner);
+        final AtomicReference<U> total = new AtomicReference<>(identity);
+        return forEachCompleted(cfs, it -> total.accumulateAndGet(accumulator.apply(identity, it), combiner)).
+                thenApply(it -> total.get());
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the reduction
+     * of the results of the given CompletableFutures, mapped to {@code int}
+     * values, without boxing the intermediate values.  The operator must be
+     * associative and commutative, and free of side-effects.
+     * See {@link #reduceAll(Collection, Object, BiFunction, BinaryOperator)}.
+     *
+     * @param cfs the CompletableFutures
+     * @param mapper the function mapping a result to an {@code int}
+     * @param identity the identity value
+     * @param op the function merging two values
+     * @return a new CompletableFuture that is completed with the reduction of
+     * all the results
+     * @throws NullPointerException if the collection, any of its elements
+     * or any of the functions are {@code null}
+     */
+    public static <T> CompletableFuture<Integer> reduceAllToInt(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            ToIntFunction<? super T> mapper, int identity, IntBinaryOperator op) {
+        Objects.requireNonNull(mapper);
+        Objects.requireNonNull(op);
+        final AtomicInteger total = new AtomicInteger(identity);
+        return forEachCompleted(cfs, it -> total.accumulateAndGet(mapper.applyAsInt(it), op)).
+                thenApply(it -> total.get());
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the reduction
+     * of the results of the given CompletableFutures, mapped to {@code long}
+     * values, without boxing the intermediate values.  The operator must be
+     * associative and commutative, and free of side-effects.
+     * See {@link #reduceAll(Collection, Object, BiFunction, BinaryOperator)}.
+     *
+     * @param cfs the CompletableFutures
+     * @param mapper the function mapping a result to a {@code long}
+     * @param identity the identity value
+     * @param op the function merging two values
+     * @return a new CompletableFuture that is completed with the reduction of
+     * all the results
+     * @throws NullPointerException if the collection, any of its elements
+     * or any of the functions are {@code null}
+     */
+    public static <T> CompletableFuture<Long> reduceAllToLong(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            ToLongFunction<? super T> mapper, long identity, LongBinaryOperator op) {
+        Objects.requireNonNull(mapper);
+        Objects.requireNonNull(op);
+        final LongAccumulator total = new LongAccumulator(op, identity);
+        return forEachCompleted(cfs, it -> total.accumulate(mapper.applyAsLong(it))).
+                thenApply(it -> total.get());
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the reduction
+     * of the results of the given CompletableFutures, mapped to {@code double}
+     * values, without boxing the intermediate values.  The operator must be
+     * associative and commutative, and free of side-effects; note that
+     * floating-point addition is only approximately associative, so sums
+     * may vary in their last bits depending on completion order.
+     * See {@link #reduceAll(Collection, Object, BiFunction, BinaryOperator)}.
+     *
+     * @param cfs the CompletableFutures
+     * @param mapper the function mapping a result to a {@code double}
+     * @param identity the identity value
+     * @param op the function merging two values
+     * @return a new CompletableFuture that is completed with the reduction of
+     * all the results
+     * @throws NullPointerException if the collection, any of its elements
+     * or any of the functions are {@code null}
+     */
+    public static <T> CompletableFuture<Double> reduceAllToDouble(Collection<? extends CompletableFuture<? extends T>> cfs, 
+            ToDoubleFunction<? super T> mapper, double identity, DoubleBinaryOperator op) {
+        Objects.requireNonNull(mapper);
+        Objects.requireNonNull(op);
+        final DoubleAccumulator total = new DoubleAccumulator(op, identity);
+        return forEachCompleted(cfs, it -> total.accumulate(mapper.applyAsDouble(it))).
+                thenApply(it -> total.get());
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the given CompletableFuture, or exceptionally with a
+     * {@link TimeoutException} if it doesn't complete within the given
+     * timeout.  Unlike {@code CompletableFuture.orTimeout} of Java 9, the
+     * given CompletableFuture itself is left untouched.
+     *
+     * <p>The timeout is scheduled on a hashed timer wheel shared by all
+     * combinators, so scheduling and cancelling it is O(1), and its
+     * precision is about 10 milliseconds.  If the given CompletableFuture
+     * is already completed, no timeout is scheduled at all.  A timeout
+     * completes the returned CompletableFuture on the timer thread, so any
+     * longer-running dependent actions should be asynchronous.
+     *
+     * @param cf the CompletableFuture
+     * @param timeout how long to wait for the CompletableFuture to complete
+     * @return a new CompletableFuture that is completed with the result of
+     * the given CompletableFuture, or with a TimeoutException
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<? extends T> cf, Duration timeout) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final TimerWheel.Timeout timer = cf.isDone() ? null : TimerWheel.shared().schedule(
+                () -> result.completeExceptionally(new TimeoutException()), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        cf.handle((value, ex) -> {
+            if (timer != null) {
+                timer.cancel();
+            }
+            if (ex == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(wrap(ex));
+            }
+            return null;
+        });
+        return result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the given CompletableFutures complete, as by {@link #allOf(Collection)},
+     * or exceptionally with a {@link TimeoutException} if they don't all
+     * complete within the given timeout.
+     *
+     * @param cfs the CompletableFutures
+     * @param timeout how long to wait for the CompletableFutures to complete
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete, or when the timeout elapses
+     * @throws NullPointerException if any of the arguments or any of the
+     * collection's elements are {@code null}
+     * @see #withTimeout(CompletableFuture, Duration)
+     */
+    public static <T> CompletableFuture<List<T>> allOf(Collection<? extends CompletableFuture<? extends T>> cfs, Duration timeout) {
+        return withTimeout(allOf(cfs), timeout);
     }
     
     /**
@@ -55,7 +575,880 @@ public class CompletableFutureUtil {
      * @throws NullPointerException if the array or any of its elements are
      * {@code null}
      */
+    @SafeVarargs
+    // the array is only read by CompletableFuture.anyOf, which completes with one of its results
+    @SuppressWarnings({"varargs", "unchecked"})
     public static <T> CompletableFuture<T> anyOf(CompletableFuture<T>... cfs) {
         return (CompletableFuture<T>) CompletableFuture.anyOf(cfs);
     }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when any of
+     * the given CompletableFutures complete, with the same result,
+     * as by {@link #anyOf(CompletableFuture...)}.
+     *
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed with the
+     * result or exception of any of the given CompletableFutures when
+     * one completes
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> anyOf(Collection<? extends CompletableFuture<? extends T>> cfs) {
+        return (CompletableFuture<T>) CompletableFuture.anyOf(cfs.toArray(new CompletableFuture<?>[cfs.size()]));
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when any of
+     * the given CompletableFutures complete, as by {@link #anyOf(Collection)},
+     * or exceptionally with a {@link TimeoutException} if none of them
+     * completes within the given timeout.
+     *
+     * @param cfs the CompletableFutures
+     * @param timeout how long to wait for any CompletableFuture to complete
+     * @return a new CompletableFuture that is completed with the
+     * result or exception of any of the given CompletableFutures when
+     * one completes, or when the timeout elapses
+     * @throws NullPointerException if any of the arguments or any of the
+     * collection's elements are {@code null}
+     * @see #withTimeout(CompletableFuture, Duration)
+     */
+    public static <T> CompletableFuture<T> anyOf(Collection<? extends CompletableFuture<? extends T>> cfs, Duration timeout) {
+        return withTimeout(anyOf(cfs), timeout);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when any of
+     * the given CompletableFutures complete, as by {@link #anyOf(Collection)}.
+     * If {@code cancelLosers} is {@code true}, the CompletableFutures which
+     * have not completed yet are cancelled as soon as the returned
+     * CompletableFuture is completed: by the first input to complete, or
+     * by being cancelled itself.  This abandons the work behind the losers
+     * of the race, e.g. of redundant requests.
+     *
+     * @param cfs the CompletableFutures
+     * @param cancelLosers whether to cancel the pending CompletableFutures
+     * once the returned CompletableFuture is completed
+     * @return a new CompletableFuture that is completed with the
+     * result or exception of any of the given CompletableFutures when
+     * one completes
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     */
+    public static <T> CompletableFuture<T> anyOf(Collection<? extends CompletableFuture<? extends T>> cfs, boolean cancelLosers) {
+        if (!cancelLosers) {
+            return anyOf(cfs);
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        for (CompletableFuture<? extends T> cf : cfs) {
+            cf.handle((value, ex) -> {
+                if (ex == null) {
+                    result.complete(value);
+                } else if (!result.isDone()) {
+                    result.completeExceptionally(wrap(ex));
+                }
+                return null;
+            });
+            if (result.isDone()) {
+                // already decided: don't attach to the remaining inputs
+                break;
+            }
+        }
+        result.whenComplete((value, ex) -> cancelPending(cfs));
+        return result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed when all of
+     * the given CompletableFutures complete, as by {@link #allOf(Collection)}.
+     * Cancelling the returned CompletableFuture cancels those of the given
+     * CompletableFutures which have not completed yet.
+     *
+     * @param cfs the CompletableFutures
+     * @return a new CompletableFuture that is completed when all of the
+     * given CompletableFutures complete
+     * @throws NullPointerException if the collection or any of its elements
+     * are {@code null}
+     * @see #propagateCancellation(CompletableFuture, Collection)
+     */
+    public static <T> CompletableFuture<List<T>> allOfCancellable(Collection<? extends CompletableFuture<? extends T>> cfs) {
+        return propagateCancellation(allOf(cfs), cfs);
+    }
+    
+    /**
+     * Makes cancelling the given derived CompletableFuture cancel those of
+     * the given upstream CompletableFutures which have not completed yet.
+     * CompletableFuture only propagates cancellation downstream, to its
+     * dependent stages; this links a stage back to the stages it was
+     * derived from, as in:
+     * <pre> {@code
+     * CompletableFuture<Report> report = CompletableFutureUtil.propagateCancellation(
+     *         fetch.thenApply(it -> render(it)), fetch);}</pre>
+     *
+     * Only a cancellation of the derived CompletableFuture itself is
+     * propagated, not any other exceptional completion.
+     *
+     * @param derived the derived CompletableFuture
+     * @param upstream the CompletableFutures it was derived from
+     * @return the derived CompletableFuture
+     * @throws NullPointerException if any of the arguments or any of the
+     * upstream CompletableFutures are {@code null}
+     */
+    public static <T> CompletableFuture<T> propagateCancellation(CompletableFuture<T> derived, CompletableFuture<?>... upstream) {
+        return propagateCancellation(derived, Arrays.asList(upstream));
+    }
+    
+    /**
+     * Makes cancelling the given derived CompletableFuture cancel those of
+     * the given upstream CompletableFutures which have not completed yet,
+     * as by {@link #propagateCancellation(CompletableFuture, CompletableFuture...)}.
+     *
+     * @param derived the derived CompletableFuture
+     * @param upstream the CompletableFutures it was derived from
+     * @return the derived CompletableFuture
+     * @throws NullPointerException if any of the arguments or any of the
+     * upstream CompletableFutures are {@code null}
+     */
+    public static <T> CompletableFuture<T> propagateCancellation(CompletableFuture<T> derived,
+            Collection<? extends CompletableFuture<?>> upstream) {
+        Objects.requireNonNull(upstream);
+        derived.handle((value, ex) -> {
+            if (derived.isCancelled()) {
+                cancelPending(upstream);
+            }
+            return null;
+        });
+        return derived;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the given CompletableFuture, or, if it completes exceptionally, with
+     * the result of the given function applied to its exception, as by
+     * {@link CompletableFuture#exceptionally(Function)}.  Unlike there, the
+     * function is passed the exception itself, rather than the
+     * CompletionException wrapping it once it passed through a dependent
+     * stage, so that it needn't unwrap it.  If the function throws an
+     * exception, the returned CompletableFuture completes exceptionally
+     * with a CompletionException holding this exception as its cause.
+     *
+     * @param cf the CompletableFuture
+     * @param fn the function computing the result if the CompletableFuture
+     * completed exceptionally
+     * @return the new CompletableFuture
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <T> CompletableFuture<T> exceptionally(CompletableFuture<? extends T> cf, 
+            Function<Throwable, ? extends T> fn) {
+        Objects.requireNonNull(fn);
+        return cf.handle((value, ex) -> ex == null ? value : fn.apply(unwrap(ex)));
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the given function applied to the result or exception of the given
+     * CompletableFuture, as by {@link CompletableFuture#handle(BiFunction)}.
+     * Unlike there, the function is passed the exception itself, rather
+     * than the CompletionException wrapping it once it passed through a
+     * dependent stage, so that it needn't unwrap it.  If the function
+     * throws an exception, the returned CompletableFuture completes
+     * exceptionally with a CompletionException holding this exception as
+     * its cause.
+     *
+     * @param cf the CompletableFuture
+     * @param fn the function computing the result
+     * @return the new CompletableFuture
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <T, U> CompletableFuture<U> handle(CompletableFuture<? extends T> cf, 
+            BiFunction<? super T, Throwable, ? extends U> fn) {
+        Objects.requireNonNull(fn);
+        return cf.handle((value, ex) -> fn.apply(value, ex == null ? null : unwrap(ex)));
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the first successful attempt among the CompletableFutures obtained by
+     * calling the given Supplier, retrying failed attempts as defined by
+     * the given policy.  If the last attempt fails, or its exception is
+     * not retryable, the returned CompletableFuture completes exceptionally
+     * with a CompletionException holding this exception as its cause.
+     * A Supplier throwing an exception or returning {@code null} counts as
+     * a failed attempt.
+     *
+     * <p>The delays between attempts are scheduled on the timer wheel shared
+     * by all combinators, so no thread is blocked while waiting; each retry
+     * is started asynchronously as by {@link #runAsync(Runnable)}.  Once the
+     * returned CompletableFuture is completed, e.g. cancelled, no further
+     * attempts are made, and a pending delay is cancelled.
+     *
+     * @param supplier a function starting an attempt
+     * @param policy the retry policy
+     * @return a new CompletableFuture that is completed with the result of
+     * the first successful attempt
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <T> CompletableFuture<T> retry(Supplier<? extends CompletableFuture<? extends T>> supplier, RetryPolicy policy) {
+        Objects.requireNonNull(supplier);
+        Objects.requireNonNull(policy);
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(supplier, policy, 1, result);
+        return result;
+    }
+    
+    private static <T> void attempt(Supplier<? extends CompletableFuture<? extends T>> supplier, RetryPolicy policy, 
+            int attempt, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<? extends T> cf;
+        try {
+            cf = Objects.requireNonNull(supplier.get(), "supplier returned null");
+        } catch (Throwable ex) {
+            cf = failed(ex);
+        }
+        cf.handle((value, ex) -> {
+            if (ex == null) {
+                result.complete(value);
+            } else if (!policy.shouldRetry(attempt, unwrap(ex))) {
+                result.completeExceptionally(wrap(ex));
+            } else {
+                long delay = policy.delayNanos(attempt);
+                Runnable retry = () -> runAsync(() -> attempt(supplier, policy, attempt + 1, result));
+                if (delay > 0) {
+                    TimerWheel.Timeout backoff = TimerWheel.shared().schedule(retry, delay, TimeUnit.NANOSECONDS);
+                    // don't keep the backoff, and what it references, on the wheel once cancelled
+                    result.handle((v, e) -> backoff.cancel());
+                } else {
+                    retry.run();
+                }
+            }
+            return null;
+        });
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the result of
+     * the first successful call among the CompletableFutures obtained by
+     * calling the given Supplier, hedging slow calls: if a call hasn't
+     * completed after the delay defined by the given policy, a backup call
+     * is started, and whichever finishes first wins.  At most
+     * {@code maxHedges} backup calls are started, each after a further
+     * delay.  A failed call, including a Supplier throwing an exception or
+     * returning {@code null}, starts the next backup call right away if no other call is pending;
+     * if all calls fail, the returned CompletableFuture completes
+     * exceptionally with a CompletionException holding the exception of
+     * the last one as its cause.
+     *
+     * <p>Once the returned CompletableFuture is completed, e.g. by the
+     * winning call or by being cancelled, the calls which are still pending
+     * are cancelled and no further backup calls are started.  With a delay
+     * around the p95 latency of the backend, as by {@link HedgePolicy#adaptive(double, Duration)},
+     * this cuts the tail latency while hedging only about 5% of the calls.
+     * The delays are scheduled on the timer wheel shared by all
+     * combinators; backup calls are started asynchronously as by
+     * {@link #runAsync(Runnable)}.
+     *
+     * @param supplier a function starting a call
+     * @param policy the policy defining the delay before a backup call
+     * @param maxHedges the maximum number of backup calls
+     * @return a new CompletableFuture that is completed with the result of
+     * the first successful call
+     * @throws NullPointerException if the supplier or the policy is {@code null}
+     * @throws IllegalArgumentException if {@code maxHedges} is negative
+     */
+    public static <T> CompletableFuture<T> hedge(Supplier<? extends CompletableFuture<? extends T>> supplier, 
+            HedgePolicy policy, int maxHedges) {
+        Objects.requireNonNull(supplier);
+        Objects.requireNonNull(policy);
+        if (maxHedges < 0) {
+            throw new IllegalArgumentException("maxHedges must not be negative: " + maxHedges);
+        }
+        Hedging<T> hedging = new Hedging<>(supplier, policy, maxHedges);
+        hedging.launch();
+        return hedging.result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the final value
+     * of an asynchronous loop: starting from the seed, as long as
+     * {@code hasNext} matches the current value, {@code next} is applied to
+     * it and the value it completes with becomes the current value.  If
+     * {@code next} completes exceptionally, or a function throws, the
+     * returned CompletableFuture completes exceptionally with a
+     * CompletionException holding this exception as its cause.
+     *
+     * <p>Unlike a chain of {@code thenCompose} calls, the loop runs with a
+     * constant stack depth however many iterations it takes: iterations
+     * whose CompletableFuture is already completed are run in a loop on the
+     * current thread, without a thread hop, and the loop is only resumed
+     * from a completing thread once an iteration actually had to wait.
+     *
+     * @param seed the initial value
+     * @param hasNext the predicate deciding whether to run another iteration
+     * @param next the function starting the next iteration
+     * @return a new CompletableFuture that is completed with the first value
+     * not matching {@code hasNext}
+     * @throws NullPointerException if any of the functions is {@code null}
+     */
+    public static <T> CompletableFuture<T> iterateAsync(T seed, Predicate<? super T> hasNext, 
+            Function<? super T, ? extends CompletableFuture<? extends T>> next) {
+        Objects.requireNonNull(hasNext);
+        Objects.requireNonNull(next);
+        final AsyncLoop<T> loop = new AsyncLoop<>(hasNext, next);
+        loop.run(seed);
+        return loop.result;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed once the given body,
+     * which is run again and again, completes with {@code false}.
+     * Like {@link #iterateAsync(Object, Predicate, Function)}, this runs
+     * with a constant stack depth however many iterations it takes.
+     *
+     * @param body the function starting an iteration, completing with
+     * whether to run another one
+     * @return a new CompletableFuture that is completed when the loop ends
+     * @throws NullPointerException if the body is {@code null}
+     */
+    public static CompletableFuture<Void> asyncWhile(Supplier<? extends CompletableFuture<Boolean>> body) {
+        Objects.requireNonNull(body);
+        return iterateAsync(Boolean.TRUE, it -> it, it -> body.get()).thenApply(it -> null);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the list of
+     * elements fetched asynchronously one after the other, as when paging
+     * through a backend: the first element is fetched for the seed, and
+     * {@code nextSeed} derives from each fetched element the seed of the
+     * next one, e.g. a continuation token, or an empty Optional after the
+     * last element.  Like {@link #iterateAsync(Object, Predicate, Function)},
+     * this runs with a constant stack depth however many elements there are.
+     *
+     * @param seed the seed of the first element
+     * @param fetch the function starting to fetch the element of a seed
+     * @param nextSeed the function deriving the seed of the next element
+     * @return a new CompletableFuture that is completed with all the
+     * fetched elements, in order
+     * @throws NullPointerException if any of the arguments is {@code null}
+     */
+    public static <S, T> CompletableFuture<List<T>> unfoldAsync(S seed, 
+            Function<? super S, ? extends CompletableFuture<? extends T>> fetch, Function<? super T, Optional<S>> nextSeed) {
+        Objects.requireNonNull(fetch);
+        Objects.requireNonNull(nextSeed);
+        final List<T> results = new ArrayList<>();
+        return iterateAsync(Optional.of(seed), Optional::isPresent, it -> fetch.apply(it.get()).thenApply(element -> {
+            results.add(element);
+            return nextSeed.apply(element);
+        })).thenApply(it -> results);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is asynchronously completed
+     * with the value obtained by calling the given Supplier.
+     *
+     * <p>On Java 21 and later, the task runs on a new virtual thread, so that
+     * suppliers blocking on I/O can be started by the ten thousands without
+     * starving a thread pool, provided that the JAR of this library has
+     * been built on JDK 21 or later, which adds the virtual thread based
+     * backend to it.  Otherwise, this is equivalent to
+     * {@link CompletableFuture#supplyAsync(Supplier)}.
+     *
+     * @param supplier a function returning the value to be used
+     * to complete the returned CompletableFuture
+     * @return the new CompletableFuture
+     * @throws NullPointerException if the supplier is {@code null}
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        Executor executor = asyncExecutor;
+        return executor == null ? AsyncBackend.supplyAsync(supplier) : CompletableFuture.supplyAsync(supplier, executor);
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is asynchronously completed
+     * after it runs the given action.
+     *
+     * <p>On Java 21 and later, the action runs on a new virtual thread,
+     * provided that the JAR of this library has been built on JDK 21 or
+     * later, as by {@link #supplyAsync(Supplier)}.  Otherwise, this is
+     * equivalent to {@link CompletableFuture#runAsync(Runnable)}.
+     *
+     * @param runnable the action to run before completing the
+     * returned CompletableFuture
+     * @return the new CompletableFuture
+     * @throws NullPointerException if the runnable is {@code null}
+     * @see #supplyAsync(Supplier)
+     */
+    public static CompletableFuture<Void> runAsync(Runnable runnable) {
+        Executor executor = asyncExecutor;
+        return executor == null ? AsyncBackend.runAsync(runnable) : CompletableFuture.runAsync(runnable, executor);
+    }
+    
+    /**
+     * Replaces the asynchronous backend of {@link #supplyAsync(Supplier)}
+     * and {@link #runAsync(Runnable)} by the given executor, or restores
+     * it if {@code null}.
+     */
+    static void setAsyncExecutor(Executor executor) {
+        asyncExecutor = executor;
+    }
+    
+    /**
+     * Returns a new CompletableFuture that is completed with the results
+     * of applying the given, possibly blocking function to each element of
+     * the given source, in source order.  Each application runs
+     * asynchronously as by {@link #supplyAsync(Supplier)}, with at most
+     * {@code maxInFlight} of them running at any time; see
+     * {@link #mapAsync(Iterable, Function, int)}.
+     *
+     * @param source the elements to map
+     * @param fn the function to apply to each element
+     * @param maxInFlight the maximum number of concurrently running applications
+     * @return a new CompletableFuture that is completed with the results of
+     * all the applications of the function
+     * @throws NullPointerException if the source or the function is {@code null}
+     * @throws IllegalArgumentException if {@code maxInFlight} is less than 1
+     */
+    public static <A, R> CompletableFuture<List<R>> mapBlocking(Iterable<? extends A> source, 
+            Function<? super A, ? extends R> fn, int maxInFlight) {
+        Objects.requireNonNull(fn);
+        return mapAsync(source, it -> supplyAsync(() -> fn.apply(it)), maxInFlight);
+    }
+    
+    private static CompletionException wrap(Throwable ex) {
+        return ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+    }
+    
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+    
+    private static <T> CompletableFuture<T> failed(Throwable ex) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(ex);
+        return result;
+    }
+    
+    private static void cancelPending(Collection<? extends CompletableFuture<?>> cfs) {
+        for (CompletableFuture<?> cf : cfs) {
+            if (!cf.isDone()) {
+                cancel(cf);
+            }
+        }
+    }
+    
+    /**
+     * Cancels the given CompletableFuture as by {@code cancel(false)}, but
+     * without capturing a stack trace, unless it is of a subclass which may
+     * override {@code cancel}.
+     */
+    private static void cancel(CompletableFuture<?> cf) {
+        if (cf.getClass() == CompletableFuture.class) {
+            cf.completeExceptionally(new Cancellation());
+        } else {
+            cf.cancel(false);
+        }
+    }
+    
+    /**
+     * Collects the results of {@link #allOf(Collection)} into presized slots;
+     * the inherited counter holds the number of inputs still pending.
+     */
+    private static final class AllOfCollector<T> extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] results;
+        private final CompletableFuture<List<T>> result;
+        private final boolean failFast;
+        private final Collection<? extends CompletableFuture<?>> cancelOnFailure;
+
+        private AllOfCollector(int size, CompletableFuture<List<T>> result, 
+                boolean failFast, Collection<? extends CompletableFuture<?>> cancelOnFailure) {
+            super(size);
+            this.results = new Object[size];
+            this.result = result;
+            this.failFast = failFast;
+            this.cancelOnFailure = cancelOnFailure;
+        }
+        
+        private void set(int slot, Object value, Throwable ex) {
+            if (ex != null && failFast) {
+                // only the first failure wins, so cancellation is triggered once
+                if (!result.isDone() && result.completeExceptionally(wrap(ex)) && cancelOnFailure != null) {
+                    cancelPending(cancelOnFailure);
+                }
+                return;
+            }
+            results[slot] = ex == null ? value : new Failure(ex);
+            // the final decrement publishes every slot written before it
+            if (decrementAndGet() == 0) {
+                complete();
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void complete() {
+            for (Object it : results) {
+                if (it instanceof Failure) {
+                    result.completeExceptionally(wrap(((Failure) it).ex));
+                    return;
+                }
+            }
+            result.complete((List<T>) Arrays.asList(results));
+        }
+    }
+    
+    /**
+     * Collects the results of {@link #firstK(int, Collection)}: each success
+     * claims the next of {@code k} presized slots, and the one completing
+     * the last slot completes the quorum.
+     */
+    private static final class QuorumCollector<T> {
+        private final CompletableFuture<Quorum<T>> result = new CompletableFuture<>();
+        private final Object[] results;
+        private final int maxFailures;
+        private final AtomicInteger claimed = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+        private QuorumCollector(int k, int size) {
+            this.results = new Object[k];
+            this.maxFailures = size - k;
+        }
+
+        private void set(T value, Throwable ex) {
+            if (ex != null) {
+                failures.add(unwrap(ex));
+                if (failed.incrementAndGet() == maxFailures + 1) {
+                    result.completeExceptionally(wrap(ex));
+                }
+                return;
+            }
+            int slot = claimed.getAndIncrement();
+            if (slot >= results.length) {
+                // a straggler
+                return;
+            }
+            results[slot] = value;
+            // the final increment publishes every slot written before it
+            if (written.incrementAndGet() == results.length) {
+                complete();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete() {
+            result.complete(new Quorum<>((List<T>) Arrays.asList(results), new ArrayList<>(failures)));
+        }
+    }
+    
+    /**
+     * Drives {@link #mapAsync(Iterator, Function, int)}.  Only one thread at
+     * a time runs the launch loop; completions arriving meanwhile just free
+     * up capacity which the running loop picks up, so CompletableFutures
+     * which are already completed don't recurse into the next launch.
+     */
+    private static final class Traversal<A, R> {
+        private final Iterator<? extends A> source;
+        private final Function<? super A, ? extends CompletableFuture<? extends R>> fn;
+        private final int maxInFlight;
+        private final CompletableFuture<List<R>> result = new CompletableFuture<>();
+        // guarded by this
+        private final List<Object> results = new ArrayList<>();
+        private int inFlight;
+        private boolean launching;
+
+        private Traversal(Iterator<? extends A> source, 
+                Function<? super A, ? extends CompletableFuture<? extends R>> fn, int maxInFlight) {
+            this.source = source;
+            this.fn = fn;
+            this.maxInFlight = maxInFlight;
+        }
+        
+        private void launch() {
+            synchronized (this) {
+                if (launching) {
+                    return;
+                }
+                launching = true;
+            }
+            while (true) {
+                A next = null;
+                int slot = -1;
+                boolean finished = false;
+                Throwable failure = null;
+                synchronized (this) {
+                    try {
+                        if (!result.isDone() && inFlight < maxInFlight && source.hasNext()) {
+                            next = source.next();
+                            slot = results.size();
+                            results.add(null);
+                            inFlight++;
+                        } else {
+                            launching = false;
+                            finished = inFlight == 0;
+                        }
+                    } catch (Throwable ex) {
+                        launching = false;
+                        failure = ex;
+                    }
+                }
+                if (failure != null) {
+                    result.completeExceptionally(wrap(failure));
+                    return;
+                }
+                if (slot < 0) {
+                    if (finished) {
+                        complete();
+                    }
+                    return;
+                }
+                
+                final int index = slot;
+                final CompletableFuture<? extends R> cf;
+                try {
+                    cf = Objects.requireNonNull(fn.apply(next), "function returned null");
+                } catch (Throwable ex) {
+                    synchronized (this) {
+                        launching = false;
+                    }
+                    result.completeExceptionally(wrap(ex));
+                    return;
+                }
+                cf.handle((value, ex) -> {
+                    set(index, value, ex);
+                    return null;
+                });
+            }
+        }
+        
+        private void set(int slot, Object value, Throwable ex) {
+            if (ex != null) {
+                result.completeExceptionally(wrap(ex));
+                return;
+            }
+            synchronized (this) {
+                results.set(slot, value);
+                inFlight--;
+            }
+            launch();
+        }
+        
+        @SuppressWarnings("unchecked")
+        private void complete() {
+            result.complete((List<R>) (List<?>) results);
+        }
+    }
+    
+    /**
+     * Drives {@link #hedge(Supplier, HedgePolicy, int)}.  The state is
+     * guarded by this object, but the Supplier is called and the calls
+     * are cancelled outside of the lock.
+     */
+    private static final class Hedging<T> {
+        private final Supplier<? extends CompletableFuture<? extends T>> supplier;
+        private final HedgePolicy policy;
+        private final int maxCalls;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<CompletableFuture<? extends T>> calls = new ArrayList<>();
+        private int started;
+        private int pending;
+        private TimerWheel.Timeout timer;
+
+        private Hedging(Supplier<? extends CompletableFuture<? extends T>> supplier, HedgePolicy policy, int maxHedges) {
+            this.supplier = supplier;
+            this.policy = policy;
+            this.maxCalls = maxHedges + 1;
+            result.whenComplete((value, ex) -> cancelAll());
+        }
+
+        private void launch() {
+            final boolean first;
+            synchronized (this) {
+                if (result.isDone() || started == maxCalls) {
+                    return;
+                }
+                first = started == 0;
+                started++;
+                pending++;
+                if (started < maxCalls) {
+                    timer = TimerWheel.shared().schedule(() -> runAsync(this::launch), policy.delayNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+            final long start = TimerWheel.nanoTime();
+            CompletableFuture<? extends T> cf;
+            try {
+                cf = Objects.requireNonNull(supplier.get(), "supplier returned null");
+            } catch (Throwable ex) {
+                cf = failed(ex);
+            }
+            synchronized (this) {
+                calls.add(cf);
+            }
+            if (result.isDone()) {
+                // lost the race with cancelAll()
+                cancel(cf);
+            }
+            cf.handle((value, ex) -> {
+                if (first) {
+                    recordLatency(start, ex);
+                }
+                completed(value, ex);
+                return null;
+            });
+        }
+
+        /**
+         * Records the latency of the first call: the time it took to
+         * succeed, or, if it was cancelled as a backup call won, the time
+         * until then.  The latter is a lower bound of its latency, but as
+         * it is longer than the delay, the call still counts above the
+         * delay, so that the delay converges to the percentile of the
+         * latency of the backend, rather than of the calls which won.
+         */
+        private void recordLatency(long start, Throwable ex) {
+            if (ex == null || ex instanceof CancellationException && result.isDone() && !result.isCompletedExceptionally()) {
+                policy.record(TimerWheel.nanoTime() - start);
+            }
+        }
+
+        private void completed(T value, Throwable ex) {
+            if (ex == null) {
+                result.complete(value);
+                return;
+            }
+            boolean last;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                if (--pending > 0) {
+                    return;
+                }
+                last = started == maxCalls;
+                if (!last && timer != null) {
+                    timer.cancel();
+                }
+            }
+            if (last) {
+                result.completeExceptionally(wrap(ex));
+            } else {
+                runAsync(this::launch);
+            }
+        }
+
+        private void cancelAll() {
+            List<CompletableFuture<? extends T>> pendingCalls;
+            synchronized (this) {
+                if (timer != null) {
+                    timer.cancel();
+                }
+                pendingCalls = new ArrayList<>(calls);
+            }
+            cancelPending(pendingCalls);
+        }
+    }
+    
+    /**
+     * Drives {@link #iterateAsync(Object, Predicate, Function)} as a
+     * trampoline: iterations completing synchronously are run in a loop, and
+     * only an iteration which is still pending after its callback has been
+     * registered resumes the loop from the completing thread.
+     */
+    private static final class AsyncLoop<T> {
+        private final Predicate<? super T> hasNext;
+        private final Function<? super T, ? extends CompletableFuture<? extends T>> next;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private AsyncLoop(Predicate<? super T> hasNext, Function<? super T, ? extends CompletableFuture<? extends T>> next) {
+            this.hasNext = hasNext;
+            this.next = next;
+        }
+        
+        private void run(T seed) {
+            T value = seed;
+            try {
+                while (hasNext.test(value)) {
+                    CompletableFuture<? extends T> cf = next.apply(value);
+                    Resumption<T> resumption = new Resumption<>(this);
+                    cf.whenComplete(resumption);
+                    if (resumption.compareAndSet(Resumption.PENDING, Resumption.SUSPENDED)) {
+                        // the completing thread resumes the loop
+                        return;
+                    }
+                    // completed while registering: continue on this thread
+                    if (resumption.ex != null) {
+                        result.completeExceptionally(wrap(resumption.ex));
+                        return;
+                    }
+                    value = resumption.value;
+                }
+            } catch (Throwable ex) {
+                result.completeExceptionally(wrap(ex));
+                return;
+            }
+            result.complete(value);
+        }
+    }
+    
+    /**
+     * Hands the result of one iteration of an {@link AsyncLoop} back to the
+     * loop; the inherited value tells whether the loop is still waiting for
+     * it on the registering thread or has been suspended.
+     */
+    private static final class Resumption<T> extends AtomicInteger implements BiConsumer<T, Throwable> {
+        private static final long serialVersionUID = 1L;
+        private static final int PENDING = 0;
+        private static final int COMPLETED = 1;
+        private static final int SUSPENDED = 2;
+        
+        private final AsyncLoop<T> loop;
+        private T value;
+        private Throwable ex;
+
+        private Resumption(AsyncLoop<T> loop) {
+            this.loop = loop;
+        }
+        
+        @Override
+        public void accept(T value, Throwable ex) {
+            this.value = value;
+            this.ex = ex;
+            if (compareAndSet(PENDING, COMPLETED)) {
+                return;
+            }
+            if (ex != null) {
+                loop.result.completeExceptionally(wrap(ex));
+            } else {
+                loop.run(value);
+            }
+        }
+    }
+    
+    /**
+     * The exception of the inputs cancelled by the combinators.  As losers
+     * are cancelled on every call of e.g. {@link #anyOf(Collection, boolean)},
+     * it doesn't capture a stack trace.
+     */
+    private static final class Cancellation extends CancellationException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+    
+    /**
+     * Marks a failed input in a result slot; never handed out to callers.
+     */
+    private static final class Failure {
+        private final Throwable ex;
+
+        private Failure(Throwable ex) {
+            this.ex = ex;
+        }
+    }
 }
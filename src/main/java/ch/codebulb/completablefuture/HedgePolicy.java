@@ -0,0 +1,136 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Defines how long {@link CompletableFutureUtil#hedge(java.util.function.Supplier, HedgePolicy, int)}
+ * waits for a call before starting a backup call.
+ *
+ * <p>A fixed policy always waits for the same delay.  An adaptive policy
+ * records the latency of the first call of every hedged call made with
+ * it, and waits for the given percentile of those latencies, e.g. the p95,
+ * so that only about 5% of the calls are hedged however the latency of
+ * the backend evolves.  A first call which is cancelled as a backup call
+ * won is recorded with the time until it was cancelled; as that is longer
+ * than the delay, it counts among the slow calls as it should, and the
+ * percentile is not skewed towards the calls which won.  Failed calls are
+ * not recorded.  Until enough latencies have been recorded, it waits for
+ * the initial delay.  Delays are bounded by {@link #withDelayBounds(Duration, Duration)},
+ * which by default allows any delay.
+ *
+ * <p>Adaptive policies are thread-safe and meant to be shared by all calls
+ * to the same backend; every {@code with...} method returns a new policy
+ * which starts without any recorded latencies.
+ */
+public final class HedgePolicy {
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    private final long initialDelayNanos;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final LatencyHistogram latencies;
+    private final AtomicLong recomputeAt = new AtomicLong(MIN_SAMPLES);
+    private volatile long adaptedDelayNanos;
+
+    private HedgePolicy(long initialDelayNanos, double percentile, long minDelayNanos, long maxDelayNanos) {
+        this.initialDelayNanos = initialDelayNanos;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.latencies = percentile > 0 ? new LatencyHistogram() : null;
+        this.adaptedDelayNanos = initialDelayNanos;
+    }
+
+    /**
+     * Returns a policy always waiting for the given delay.
+     *
+     * @param delay the delay before starting a backup call
+     * @return the new policy
+     * @throws NullPointerException if the delay is {@code null}
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public static HedgePolicy fixedDelay(Duration delay) {
+        if (delay.isNegative()) {
+            throw new IllegalArgumentException("delay must not be negative: " + delay);
+        }
+        return new HedgePolicy(delay.toNanos(), 0, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a policy waiting for the given percentile of the latencies of
+     * the first calls made with it, or for the initial delay as long as
+     * too few latencies have been recorded.
+     *
+     * @param percentile the percentile, greater than 0 and at most 100
+     * @param initialDelay the delay before enough latencies have been recorded
+     * @return the new policy
+     * @throws NullPointerException if the delay is {@code null}
+     * @throws IllegalArgumentException if the percentile is out of range or
+     * the delay is negative
+     */
+    public static HedgePolicy adaptive(double percentile, Duration initialDelay) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile must be greater than 0 and at most 100: " + percentile);
+        }
+        if (initialDelay.isNegative()) {
+            throw new IllegalArgumentException("initialDelay must not be negative: " + initialDelay);
+        }
+        return new HedgePolicy(initialDelay.toNanos(), percentile, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a copy of this policy which never waits for less than
+     * {@code minDelay} or for more than {@code maxDelay}.
+     *
+     * @param minDelay the minimum delay
+     * @param maxDelay the maximum delay
+     * @return the new policy
+     * @throws NullPointerException if any of the delays is {@code null}
+     * @throws IllegalArgumentException if any of the delays is negative, or
+     * {@code minDelay} is greater than {@code maxDelay}
+     */
+    public HedgePolicy withDelayBounds(Duration minDelay, Duration maxDelay) {
+        if (minDelay.isNegative() || maxDelay.compareTo(minDelay) < 0) {
+            throw new IllegalArgumentException("Invalid delay bounds: " + minDelay + ", " + maxDelay);
+        }
+        return new HedgePolicy(initialDelayNanos, percentile, minDelay.toNanos(), maxDelay.toNanos());
+    }
+
+    public boolean isAdaptive() {
+        return latencies != null;
+    }
+
+    /**
+     * Returns the delay currently waited for before starting a backup call.
+     */
+    public Duration getDelay() {
+        return Duration.ofNanos(delayNanos());
+    }
+
+    /**
+     * Returns the delay in nanoseconds before starting a backup call.
+     */
+    long delayNanos() {
+        if (latencies != null) {
+            long count = latencies.getCount();
+            long due = recomputeAt.get();
+            // recompute now and then only, as reading a percentile scans the histogram
+            if (count >= due && recomputeAt.compareAndSet(due, count + RECOMPUTE_INTERVAL)) {
+                adaptedDelayNanos = latencies.getPercentile(percentile);
+            }
+        }
+        return Math.min(Math.max(adaptedDelayNanos, minDelayNanos), maxDelayNanos);
+    }
+
+    /**
+     * Records the latency of a first call, if this policy is adaptive.
+     */
+    void record(long latencyNanos) {
+        if (latencies != null) {
+            latencies.record(latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ch.codebulb.completablefuture;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A sequence of synchronous stages, such as {@code thenApply(...).thenApply(...).whenComplete(...)},
+ * which is attached to a CompletableFuture as a single fused stage:
+ * <pre> {@code
+ * static final Pipeline<String, String> PIPELINE = Pipeline.<String> start().
+ *         thenApply(it -> transform(it)).
+ *         thenApply(it -> transform(it)).
+ *         whenComplete((it, err) -> log(it, err));
+ *
+ * CompletableFuture<String> result = PIPELINE.attach(promise);
+ * }</pre>
+ *
+ * <p>Where the equivalent chain allocates a dependent CompletableFuture and
+ * a completion node for every stage, and completes them one after the
+ * other, an attached pipeline allocates about as much as a single stage,
+ * however many stages it has, and runs them all in a loop.  The stages
+ * see the same values and exceptions as in the chain: an exception passed
+ * on from one stage to the next is wrapped in a {@link CompletionException}
+ * unless it is one already, so a recover handler or terminal action
+ * following another stage sees a CompletionException, as it would in the
+ * chain.  The stages run on the thread completing the CompletableFuture,
+ * or on the attaching thread if it is already completed; a pipeline has no
+ * asynchronous stages.
+ *
+ * <p>Pipelines are immutable and meant to be built once and attached to
+ * any number of CompletableFutures; every stage method returns a new pipeline.
+ *
+ * @param <T> the type of the values the pipeline is attached to
+ * @param <R> the type of the results of the pipeline
+ */
+public final class Pipeline<T, R> {
+    private static final byte APPLY = 0;
+    private static final byte ACCEPT = 1;
+    private static final byte RECOVER = 2;
+    private static final byte HANDLE = 3;
+    private static final byte WHEN_COMPLETE = 4;
+
+    private static final Pipeline<?, ?> EMPTY = new Pipeline<>(new byte[0], new Object[0]);
+
+    private final byte[] kinds;
+    private final Object[] functions;
+
+    private Pipeline(byte[] kinds, Object[] functions) {
+        this.kinds = kinds;
+        this.functions = functions;
+    }
+
+    /**
+     * Returns an empty pipeline, whose result is the value it is attached to.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Pipeline<T, T> start() {
+        return (Pipeline<T, T>) EMPTY;
+    }
+
+    /**
+     * Returns a new pipeline with a stage applying the given function to
+     * the result, see {@link CompletableFuture#thenApply(Function)}.
+     *
+     * @throws NullPointerException if the function is {@code null}
+     */
+    public <U> Pipeline<T, U> thenApply(Function<? super R, ? extends U> fn) {
+        return append(APPLY, fn);
+    }
+
+    /**
+     * Returns a new pipeline with a terminal stage passing the result to the
+     * given action, see {@link CompletableFuture#thenAccept(Consumer)}.
+     *
+     * @throws NullPointerException if the action is {@code null}
+     */
+    public Pipeline<T, Void> thenAccept(Consumer<? super R> action) {
+        return append(ACCEPT, action);
+    }
+
+    /**
+     * Returns a new pipeline with a stage recovering from an exception with
+     * the result of the given function, see {@link CompletableFuture#exceptionally(Function)}.
+     *
+     * @throws NullPointerException if the function is {@code null}
+     */
+    public Pipeline<T, R> exceptionally(Function<Throwable, ? extends R> fn) {
+        return append(RECOVER, fn);
+    }
+
+    /**
+     * Returns a new pipeline with a stage applying the given function to
+     * the result or exception, see {@link CompletableFuture#handle(BiFunction)}.
+     *
+     * @throws NullPointerException if the function is {@code null}
+     */
+    public <U> Pipeline<T, U> handle(BiFunction<? super R, Throwable, ? extends U> fn) {
+        return append(HANDLE, fn);
+    }
+
+    /**
+     * Returns a new pipeline with a stage passing the result or exception
+     * to the given action, see {@link CompletableFuture#whenComplete(BiConsumer)}.
+     *
+     * @throws NullPointerException if the action is {@code null}
+     */
+    public Pipeline<T, R> whenComplete(BiConsumer<? super R, ? super Throwable> action) {
+        return append(WHEN_COMPLETE, action);
+    }
+
+    /**
+     * Attaches this pipeline to the given CompletableFuture, and returns a
+     * new CompletableFuture that is completed with the result of the
+     * pipeline once the given CompletableFuture completes.
+     *
+     * @param cf the CompletableFuture
+     * @return a new CompletableFuture of the result of the pipeline
+     * @throws NullPointerException if the CompletableFuture is {@code null}
+     */
+    public CompletableFuture<R> attach(CompletableFuture<? extends T> cf) {
+        Fused<T, R> fused = new Fused<>(kinds, functions);
+        cf.whenComplete(fused);
+        return fused;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <U> Pipeline<T, U> append(byte kind, Object function) {
+        Objects.requireNonNull(function);
+        byte[] newKinds = Arrays.copyOf(kinds, kinds.length + 1);
+        Object[] newFunctions = Arrays.copyOf(functions, functions.length + 1);
+        newKinds[kinds.length] = kind;
+        newFunctions[functions.length] = function;
+        return new Pipeline<>(newKinds, newFunctions);
+    }
+
+    /**
+     * The fused stage: the CompletableFuture of the result, which runs the
+     * stages once the CompletableFuture it is attached to completes.
+     */
+    private static final class Fused<T, R> extends CompletableFuture<R> implements BiConsumer<T, Throwable> {
+        private final byte[] kinds;
+        private final Object[] functions;
+
+        private Fused(byte[] kinds, Object[] functions) {
+            this.kinds = kinds;
+            this.functions = functions;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void accept(T input, Throwable failure) {
+            Object value = input;
+            Throwable ex = failure;
+            for (int i = 0; i < kinds.length; i++) {
+                Object function = functions[i];
+                try {
+                    switch (kinds[i]) {
+                        case APPLY:
+                            if (ex == null) {
+                                value = ((Function<Object, Object>) function).apply(value);
+                            }
+                            break;
+                        case ACCEPT:
+                            if (ex == null) {
+                                ((Consumer<Object>) function).accept(value);
+                                value = null;
+                            }
+                            break;
+                        case RECOVER:
+                            if (ex != null) {
+                                value = ((Function<Throwable, Object>) function).apply(ex);
+                                ex = null;
+                            }
+                            break;
+                        case HANDLE:
+                            value = ((BiFunction<Object, Throwable, Object>) function).apply(value, ex);
+                            ex = null;
+                            break;
+                        default:
+                            try {
+                                ((BiConsumer<Object, Throwable>) function).accept(value, ex);
+                            } catch (Throwable actionEx) {
+                                if (ex != null && actionEx != ex) {
+                                    ex.addSuppressed(actionEx);
+                                }
+                                if (ex == null) {
+                                    throw actionEx;
+                                }
+                            }
+                    }
+                } catch (Throwable stageEx) {
+                    ex = stageEx;
+                    value = null;
+                }
+                if (ex != null) {
+                    // as it would be passed on to the next stage of the chain
+                    ex = wrap(ex);
+                }
+            }
+            if (ex == null) {
+                complete((R) value);
+            } else {
+                completeExceptionally(ex);
+            }
+        }
+
+        private static CompletionException wrap(Throwable ex) {
+            return ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package ch.codebulb.completablefuture;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A lightweight alternative to {@link CompletableFuture} for the common case
+ * of a promise with exactly one continuation.  A promise keeps its listeners
+ * and its result in a single field: the first listener is stored as is, and
+ * only a second listener allocates a list of them.  Each dependent promise
+ * is its own listener, so a stage built on a pending promise costs a single
+ * allocation, and completing a promise is a single CAS.  This pays off for
+ * chains built before their promise completes; on an already completed
+ * promise, each stage still allocates its dependent promise, where the JIT
+ * often removes the stages of a CompletableFuture altogether.
+ *
+ * <p>Completion follows the semantics of CompletableFuture: a promise is
+ * fulfilled or rejected at most once, except by {@code obtrude...}; a
+ * rejection is propagated to dependent promises wrapped in a
+ * {@link CompletionException}; and {@link #join()} throws a CompletionException
+ * holding the cause.  Dependent actions run on the thread completing the
+ * promise, or on the registering thread if it is already complete; long
+ * chains of dependent promises complete recursively, so this is meant for
+ * short chains.  Use {@link #toCompletableFuture()} and {@link #from(CompletableFuture)}
+ * to convert between the two.
+ *
+ * @param <T> the type of the result
+ */
+public class Promise<T> {
+    // raw, as the updater is created from the class literal, which can't be parameterized
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "state");
+    private static final Object NULL = new Object();
+
+    /**
+     * Either {@code null} (pending, no listener), a {@link Dependent} (pending,
+     * one listener), a {@link Listeners} (pending, several listeners), or the
+     * result: {@link #NULL}, a {@link Failure}, a {@link Boxed} value, or the
+     * value itself.
+     */
+    private volatile Object state;
+
+    /**
+     * Creates a new pending promise.
+     */
+    public Promise() {}
+
+    /**
+     * Returns a new promise fulfilled with the given value.
+     */
+    public static <T> Promise<T> of(T value) {
+        Promise<T> result = new Promise<>();
+        result.state = encode(value);
+        return result;
+    }
+
+    /**
+     * Returns a new promise rejected with the given exception.
+     */
+    public static <T> Promise<T> failed(Throwable ex) {
+        Promise<T> result = new Promise<>();
+        result.state = new Failure(Objects.requireNonNull(ex));
+        return result;
+    }
+
+    /**
+     * Returns a new promise completed with the result of the given
+     * CompletableFuture.  If it is already completed, the result is copied
+     * right away; otherwise, a single callback is registered on it.
+     */
+    public static <T> Promise<T> from(CompletableFuture<T> cf) {
+        Promise<T> result = new Promise<>();
+        if (cf.isDone() && !cf.isCompletedExceptionally()) {
+            result.complete(cf.getNow(null));
+        } else {
+            cf.whenComplete((value, ex) -> result.set(value, ex));
+        }
+        return result;
+    }
+
+    /**
+     * Fulfils this promise with the given value, if not already completed.
+     *
+     * @return {@code true} if this call completed this promise
+     */
+    public boolean complete(T value) {
+        return set(encode(value));
+    }
+
+    /**
+     * Rejects this promise with the given exception, if not already completed.
+     *
+     * @return {@code true} if this call completed this promise
+     */
+    public boolean completeExceptionally(Throwable ex) {
+        return set(new Failure(Objects.requireNonNull(ex)));
+    }
+
+    /**
+     * Forcibly sets the value of this promise, whether or not it is already
+     * completed.  Listeners which have already been notified are not
+     * notified again.
+     */
+    public void obtrudeValue(T value) {
+        obtrude(encode(value));
+    }
+
+    /**
+     * Forcibly rejects this promise, whether or not it is already completed.
+     * Listeners which have already been notified are not notified again.
+     */
+    public void obtrudeException(Throwable ex) {
+        obtrude(new Failure(Objects.requireNonNull(ex)));
+    }
+
+    public boolean isDone() {
+        return isResult(state);
+    }
+
+    public boolean isCompletedExceptionally() {
+        return state instanceof Failure;
+    }
+
+    /**
+     * Returns the value of this promise if it is fulfilled, or the given
+     * value if it is still pending.
+     *
+     * @throws CompletionException if this promise has been rejected
+     */
+    public T getNow(T valueIfAbsent) {
+        Object current = state;
+        return isResult(current) ? valueOf(current) : valueIfAbsent;
+    }
+
+    /**
+     * Waits for this promise to complete, and returns its value.  As by
+     * {@link CompletableFuture#join()}, the wait is not interrupted; if the
+     * waiting thread is interrupted, its interrupt status is restored once
+     * this promise completes.
+     *
+     * @throws CompletionException if this promise has been rejected
+     */
+    public T join() {
+        Object current = state;
+        if (!isResult(current)) {
+            Thread waiter = Thread.currentThread();
+            addDependent(new Dependent<T, Void>() {
+                @Override
+                void run(T value, Throwable ex) {
+                    LockSupport.unpark(waiter);
+                }
+            });
+            boolean interrupted = false;
+            while (!isResult(current = state)) {
+                LockSupport.park(this);
+                // park returns right away while interrupted: clear the status to keep waiting
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                waiter.interrupt();
+            }
+        }
+        return valueOf(current);
+    }
+
+    /**
+     * Returns a new promise fulfilled with the result of applying the given
+     * function to the value of this promise, see
+     * {@link CompletableFuture#thenApply(Function)}.
+     */
+    public <R> Promise<R> thenApply(Function<? super T, ? extends R> fn) {
+        Objects.requireNonNull(fn);
+        return addDependent(new Dependent<T, R>() {
+            @Override
+            void run(T value, Throwable ex) {
+                if (ex != null) {
+                    propagate(ex);
+                } else {
+                    complete(fn.apply(value));
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a new promise fulfilled after passing the value of this
+     * promise to the given consumer, see {@link CompletableFuture#thenAccept(Consumer)}.
+     */
+    public Promise<Void> thenAccept(Consumer<? super T> consumer) {
+        Objects.requireNonNull(consumer);
+        return addDependent(new Dependent<T, Void>() {
+            @Override
+            void run(T value, Throwable ex) {
+                if (ex != null) {
+                    propagate(ex);
+                } else {
+                    consumer.accept(value);
+                    complete(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a new promise completed with the result of the promise
+     * returned by the given function for the value of this promise, see
+     * {@link CompletableFuture#thenCompose(Function)}.
+     */
+    public <R> Promise<R> thenCompose(Function<? super T, ? extends Promise<R>> fn) {
+        Objects.requireNonNull(fn);
+        return addDependent(new Dependent<T, R>() {
+            @Override
+            void run(T value, Throwable ex) {
+                if (ex != null) {
+                    propagate(ex);
+                } else {
+                    fn.apply(value).onComplete(this::relay);
+                }
+            }
+
+            private void relay(R value, Throwable ex) {
+                if (ex != null) {
+                    propagate(ex);
+                } else {
+                    complete(value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a new promise fulfilled with the value of this promise, or if
+     * this promise is rejected, with the result of the given function, see
+     * {@link CompletableFuture#exceptionally(Function)}.
+     */
+    public Promise<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        Objects.requireNonNull(fn);
+        return addDependent(new Dependent<T, T>() {
+            @Override
+            void run(T value, Throwable ex) {
+                complete(ex == null ? value : fn.apply(ex));
+            }
+        });
+    }
+
+    /**
+     * Returns a new promise fulfilled with the result of the given function
+     * for the value or the exception of this promise, see
+     * {@link CompletableFuture#handle(BiFunction)}.
+     */
+    public <R> Promise<R> handle(BiFunction<? super T, Throwable, ? extends R> fn) {
+        Objects.requireNonNull(fn);
+        return addDependent(new Dependent<T, R>() {
+            @Override
+            void run(T value, Throwable ex) {
+                complete(fn.apply(value, ex));
+            }
+        });
+    }
+
+    /**
+     * Returns a new promise completed with the result of this promise after
+     * passing it to the given action, see {@link CompletableFuture#whenComplete(BiConsumer)}.
+     */
+    public Promise<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        Objects.requireNonNull(action);
+        return addDependent(new Dependent<T, T>() {
+            @Override
+            void run(T value, Throwable ex) {
+                action.accept(value, ex);
+                if (ex != null) {
+                    propagate(ex);
+                } else {
+                    complete(value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Passes the result of this promise to the given action once it is
+     * completed, as a terminal stage which is not returned.  Exceptions
+     * thrown by the action are ignored.
+     */
+    public void onComplete(BiConsumer<? super T, ? super Throwable> action) {
+        Objects.requireNonNull(action);
+        addDependent(new Dependent<T, Void>() {
+            @Override
+            void run(T value, Throwable ex) {
+                action.accept(value, ex);
+            }
+        });
+    }
+
+    /**
+     * Returns a CompletableFuture completed with the result of this promise.
+     * If this promise is already completed, the result is copied right away;
+     * otherwise, it is passed on by a single listener.
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Object current = state;
+        if (isResult(current)) {
+            if (current instanceof Failure) {
+                result.completeExceptionally(((Failure) current).ex);
+            } else {
+                result.complete(valueOf(current));
+            }
+            return result;
+        }
+        addDependent(new Dependent<T, Void>() {
+            @Override
+            void run(T value, Throwable ex) {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        Object current = state;
+        return super.toString() + (current instanceof Failure ? "[Completed exceptionally: " + ((Failure) current).ex + "]"
+                : isResult(current) ? "[Completed normally]" : "[Incomplete]");
+    }
+
+    private <R> Promise<R> addDependent(Dependent<T, R> dependent) {
+        while (true) {
+            Object current = state;
+            if (isResult(current)) {
+                notify(dependent, current);
+                return dependent;
+            }
+            Object next = current == null ? dependent : new Listeners(dependent, current);
+            if (STATE.compareAndSet(this, current, next)) {
+                return dependent;
+            }
+        }
+    }
+
+    private boolean set(T value, Throwable ex) {
+        return ex == null ? complete(value) : completeExceptionally(ex);
+    }
+
+    private boolean set(Object result) {
+        while (true) {
+            Object current = state;
+            if (isResult(current)) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, current, result)) {
+                notifyListeners(current, result);
+                return true;
+            }
+        }
+    }
+
+    private void obtrude(Object result) {
+        while (true) {
+            Object current = state;
+            if (!isResult(current)) {
+                if (set(result)) {
+                    return;
+                }
+            } else if (STATE.compareAndSet(this, current, result)) {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyListeners(Object listeners, Object result) {
+        if (listeners instanceof Dependent) {
+            notify((Dependent<T, ?>) listeners, result);
+        } else if (listeners instanceof Listeners) {
+            // notify in registration order; the stack holds the latest first
+            Listeners reversed = null;
+            Object first = listeners;
+            for (; first instanceof Listeners; first = ((Listeners) first).next) {
+                reversed = new Listeners(((Listeners) first).listener, reversed);
+            }
+            notify((Dependent<T, ?>) first, result);
+            for (Listeners it = reversed; it != null; it = (Listeners) it.next) {
+                notify((Dependent<T, ?>) it.listener, result);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void notify(Dependent<T, ?> dependent, Object result) {
+        try {
+            if (result instanceof Failure) {
+                dependent.run(null, ((Failure) result).ex);
+            } else {
+                dependent.run((T) decode(result), null);
+            }
+        } catch (Throwable ex) {
+            dependent.propagate(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T valueOf(Object result) {
+        if (result instanceof Failure) {
+            Throwable ex = ((Failure) result).ex;
+            throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+        }
+        return (T) decode(result);
+    }
+
+    private static Object encode(Object value) {
+        // a value must not be mistaken for a listener
+        return value == null ? NULL : value instanceof Dependent ? new Boxed(value) : value;
+    }
+
+    private static Object decode(Object result) {
+        return result == NULL ? null : result instanceof Boxed ? ((Boxed) result).value : result;
+    }
+
+    private static boolean isResult(Object state) {
+        // class rather than interface checks, as these are on every path
+        return state != null && !(state instanceof Dependent) && !(state instanceof Listeners);
+    }
+
+    /**
+     * A dependent promise, listening to the promise it depends on.
+     */
+    private abstract static class Dependent<T, R> extends Promise<R> {
+        /**
+         * Receives the result of the promise depended on: either a value, or
+         * an exception.  If this throws, this promise is rejected.
+         */
+        abstract void run(T value, Throwable ex);
+
+        final void propagate(Throwable ex) {
+            completeExceptionally(ex instanceof CompletionException ? ex : new CompletionException(ex));
+        }
+    }
+
+    /**
+     * A stack of the listeners of a promise, the latest one first; the
+     * bottom element is a plain {@link Dependent}.
+     */
+    private static final class Listeners {
+        private final Dependent<?, ?> listener;
+        private final Object next;
+
+        private Listeners(Dependent<?, ?> listener, Object next) {
+            this.listener = listener;
+            this.next = next;
+        }
+    }
+
+    private static final class Boxed {
+        private final Object value;
+
+        private Boxed(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Failure {
+        private final Throwable ex;
+
+        private Failure(Throwable ex) {
+            this.ex = ex;
+        }
+    }
+}
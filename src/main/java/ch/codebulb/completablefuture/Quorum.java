@@ -0,0 +1,43 @@
+package ch.codebulb.completablefuture;
+
+import java.util.List;
+
+/**
+ * The outcome of {@link CompletableFutureUtil#firstK(int, java.util.Collection)}:
+ * the results of the first CompletableFutures to complete successfully, in
+ * completion order, and the failures tolerated until then.
+ *
+ * @param <T> the type of the results
+ */
+public final class Quorum<T> {
+    private final List<T> results;
+    private final List<Throwable> failures;
+
+    Quorum(List<T> results, List<Throwable> failures) {
+        this.results = results;
+        this.failures = failures;
+    }
+
+    /**
+     * Returns the results of the first CompletableFutures to complete
+     * successfully, in completion order.
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the exceptions of the CompletableFutures which completed
+     * exceptionally before the quorum was reached, in completion order.
+     * These are the exceptions themselves, not {@link java.util.concurrent.CompletionException}s
+     * wrapping them.
+     */
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "Quorum{" + "results=" + results + ", failures=" + failures + '}';
+    }
+}
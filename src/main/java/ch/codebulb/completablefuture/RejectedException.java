@@ -0,0 +1,40 @@
+package ch.codebulb.completablefuture;
+
+/**
+ * A cheap exception to reject a CompletableFuture with, on paths where
+ * rejections are frequent: it doesn't capture a stack trace, which is
+ * where most of the cost of creating an exception goes, and it doesn't
+ * record suppressed exceptions.  As it is immutable, a single instance
+ * can be preallocated and shared by all rejections for the same reason,
+ * as in:
+ * <pre> {@code
+ * static final RejectedException NOT_FOUND = new RejectedException("Not found");
+ *
+ * promise.completeExceptionally(NOT_FOUND);
+ * }</pre>
+ *
+ * The cause, if any, is where the stack trace is to be found.  Applications
+ * can subclass this class for stackless exceptions of their own types.
+ */
+public class RejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs an exception with the given detail message.
+     *
+     * @param message the detail message
+     */
+    public RejectedException(String message) {
+        super(message, null, false, false);
+    }
+
+    /**
+     * Constructs an exception with the given detail message and cause.
+     *
+     * @param message the detail message
+     * @param cause the cause
+     */
+    public RejectedException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+}
@@ -0,0 +1,149 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Defines how {@link CompletableFutureUtil#retry(java.util.function.Supplier, RetryPolicy)}
+ * retries a failed attempt: how many attempts are made at most, how long
+ * to wait between them, and which exceptions are worth a retry.
+ *
+ * <p>Policies are immutable; every {@code with...} method returns a new
+ * policy, as in: {@code RetryPolicy.maxAttempts(5).withBackoff(
+ * Duration.ofMillis(50), 2, Duration.ofSeconds(2)).withJitter(0.5)}.
+ * Unless configured otherwise, a policy waits 100 milliseconds before the
+ * first retry, doubles the delay for each further retry up to 10 seconds,
+ * doesn't apply jitter, and retries on any exception.
+ */
+public final class RetryPolicy {
+    private final int maxAttempts;
+    private final Duration initialDelay;
+    private final double multiplier;
+    private final Duration maxDelay;
+    private final double jitter;
+    private final Predicate<? super Throwable> retryOn;
+
+    private RetryPolicy(int maxAttempts, Duration initialDelay, double multiplier, Duration maxDelay,
+            double jitter, Predicate<? super Throwable> retryOn) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+        this.retryOn = retryOn;
+    }
+
+    /**
+     * Returns a policy making at most the given number of attempts in total,
+     * including the first one.
+     *
+     * @param maxAttempts the maximum number of attempts
+     * @return the new policy
+     * @throws IllegalArgumentException if {@code maxAttempts} is less than 1
+     */
+    public static RetryPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        return new RetryPolicy(maxAttempts, Duration.ofMillis(100), 2, Duration.ofSeconds(10), 0, it -> true);
+    }
+
+    /**
+     * Returns a copy of this policy with an exponential backoff: the first
+     * retry waits for {@code initialDelay}, and each further retry waits
+     * {@code multiplier} times as long as the one before, but never longer
+     * than {@code maxDelay}.  A multiplier of 1 results in a fixed delay.
+     *
+     * @param initialDelay the delay before the first retry
+     * @param multiplier the factor by which the delay grows with each retry
+     * @param maxDelay the maximum delay
+     * @return the new policy
+     * @throws NullPointerException if any of the delays is {@code null}
+     * @throws IllegalArgumentException if any of the delays is negative
+     * or the multiplier is less than 1
+     */
+    public RetryPolicy withBackoff(Duration initialDelay, double multiplier, Duration maxDelay) {
+        if (initialDelay.isNegative() || maxDelay.isNegative()) {
+            throw new IllegalArgumentException("Delays must not be negative");
+        }
+        if (!(multiplier >= 1)) {
+            throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+        }
+        return new RetryPolicy(maxAttempts, initialDelay, multiplier, maxDelay, jitter, retryOn);
+    }
+
+    /**
+     * Returns a copy of this policy which shortens each delay by a random
+     * fraction of up to {@code jitter}, so that clients failing at the same
+     * time don't all retry at the same time.  A jitter of 0 disables this,
+     * a jitter of 1 picks each delay at random between zero and its full value.
+     *
+     * @param jitter the maximum fraction by which a delay is shortened
+     * @return the new policy
+     * @throws IllegalArgumentException if {@code jitter} is not between 0 and 1
+     */
+    public RetryPolicy withJitter(double jitter) {
+        if (!(jitter >= 0 && jitter <= 1)) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+        }
+        return new RetryPolicy(maxAttempts, initialDelay, multiplier, maxDelay, jitter, retryOn);
+    }
+
+    /**
+     * Returns a copy of this policy which only retries if the exception of a
+     * failed attempt matches the given predicate.  The predicate is passed
+     * the exception itself, not a {@link java.util.concurrent.CompletionException}
+     * wrapping it.
+     *
+     * @param retryOn the predicate matching retryable exceptions
+     * @return the new policy
+     * @throws NullPointerException if the predicate is {@code null}
+     */
+    public RetryPolicy retryOn(Predicate<? super Throwable> retryOn) {
+        return new RetryPolicy(maxAttempts, initialDelay, multiplier, maxDelay, jitter, Objects.requireNonNull(retryOn));
+    }
+
+    /**
+     * Returns a copy of this policy which only retries if the exception of a
+     * failed attempt is an instance of any of the given types.
+     *
+     * @param types the retryable exception types
+     * @return the new policy
+     */
+    @SafeVarargs
+    public final RetryPolicy retryOn(Class<? extends Throwable>... types) {
+        return retryOn(ex -> {
+            for (Class<? extends Throwable> type : types) {
+                if (type.isInstance(ex)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns whether another attempt should be made after the given attempt
+     * failed with the given exception.
+     */
+    boolean shouldRetry(int attempt, Throwable ex) {
+        return attempt < maxAttempts && retryOn.test(ex);
+    }
+
+    /**
+     * Returns the delay in nanoseconds before the retry following the given attempt.
+     */
+    long delayNanos(int attempt) {
+        double delay = Math.min(initialDelay.toNanos() * Math.pow(multiplier, attempt - 1), maxDelay.toNanos());
+        if (jitter > 0) {
+            delay -= delay * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        return (long) delay;
+    }
+}
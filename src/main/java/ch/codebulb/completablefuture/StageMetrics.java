@@ -0,0 +1,303 @@
+package ch.codebulb.completablefuture;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Opt-in latency instrumentation of the stages of CompletableFuture chains.
+ * The functions and executors of a chain are wrapped with the stage name
+ * under which they are recorded, as in:
+ * <pre> {@code
+ * promise.thenApplyAsync(metrics.function("parse", it -> parse(it)), metrics.executor("parse", pool))
+ *        .thenApply(metrics.function("transform", it -> transform(it)))
+ *        .whenComplete(metrics.action("log", (it, err) -> log(it, err)));}</pre>
+ *
+ * For each stage, this records the execution time of the function and
+ * whether it succeeded or threw, the time its task waited in the queue of
+ * a wrapped executor, and which thread pool ran it.  Durations are recorded
+ * into {@link LatencyHistogram}s, counts into {@link LongAdder}s, so that
+ * recording never locks.
+ *
+ * <p>While disabled, the wrapping methods return the given function or
+ * executor as is, so a chain built while disabled costs nothing extra.
+ * Enabling or disabling only affects chains built afterwards.
+ */
+public final class StageMetrics {
+    private static final ThreadLocal<String> POOL_NAMES = new ThreadLocal<>();
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+
+    /**
+     * Creates instrumentation which is initially enabled or disabled as given.
+     *
+     * @param enabled whether to instrument the stages
+     */
+    public StageMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the given function, recording each application under the
+     * given stage name if enabled.
+     */
+    public <T, R> Function<T, R> function(String stage, Function<T, R> fn) {
+        if (!enabled) {
+            return fn;
+        }
+        Objects.requireNonNull(fn);
+        Stage metrics = stage(stage);
+        return it -> {
+            long start = metrics.start();
+            try {
+                R result = fn.apply(it);
+                metrics.succeeded(start);
+                return result;
+            } catch (Throwable ex) {
+                metrics.failed(start);
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Returns the given consumer, recording each invocation under the
+     * given stage name if enabled.
+     */
+    public <T> Consumer<T> consumer(String stage, Consumer<T> consumer) {
+        if (!enabled) {
+            return consumer;
+        }
+        Objects.requireNonNull(consumer);
+        Stage metrics = stage(stage);
+        return it -> {
+            long start = metrics.start();
+            try {
+                consumer.accept(it);
+                metrics.succeeded(start);
+            } catch (Throwable ex) {
+                metrics.failed(start);
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Returns the given handler, as used by {@code handle}, recording each
+     * invocation under the given stage name if enabled.
+     */
+    public <T, R> BiFunction<T, Throwable, R> handler(String stage, BiFunction<T, Throwable, R> fn) {
+        if (!enabled) {
+            return fn;
+        }
+        Objects.requireNonNull(fn);
+        Stage metrics = stage(stage);
+        return (it, err) -> {
+            long start = metrics.start();
+            try {
+                R result = fn.apply(it, err);
+                metrics.succeeded(start);
+                return result;
+            } catch (Throwable ex) {
+                metrics.failed(start);
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Returns the given action, as used by {@code whenComplete}, recording
+     * each invocation under the given stage name if enabled.
+     */
+    public <T> BiConsumer<T, Throwable> action(String stage, BiConsumer<T, Throwable> action) {
+        if (!enabled) {
+            return action;
+        }
+        Objects.requireNonNull(action);
+        Stage metrics = stage(stage);
+        return (it, err) -> {
+            long start = metrics.start();
+            try {
+                action.accept(it, err);
+                metrics.succeeded(start);
+            } catch (Throwable ex) {
+                metrics.failed(start);
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Returns the given executor, recording how long each task waits before
+     * it runs under the given stage name if enabled.
+     */
+    public Executor executor(String stage, Executor executor) {
+        if (!enabled) {
+            return executor;
+        }
+        Objects.requireNonNull(executor);
+        Stage metrics = stage(stage);
+        return task -> {
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                metrics.queueWait.record(System.nanoTime() - submitted);
+                task.run();
+            });
+        };
+    }
+
+    /**
+     * Returns the metrics of the stage with the given name, creating them if
+     * they don't exist yet.
+     */
+    public Stage stage(String name) {
+        // look up first, as computeIfAbsent locks its bin on Java 8 even if present
+        Stage stage = stages.get(name);
+        return stage != null ? stage : stages.computeIfAbsent(name, Stage::new);
+    }
+
+    /**
+     * Returns a read-only view of the metrics of all stages recorded so far,
+     * by stage name, for exporting them.
+     */
+    public Map<String, Stage> getStages() {
+        return Collections.unmodifiableMap(stages);
+    }
+
+    /**
+     * Clears the metrics of all stages.  The stages themselves are kept, as
+     * wrappers created before keep recording into them.  Values recorded
+     * concurrently may be lost.
+     */
+    public void reset() {
+        for (Stage stage : stages.values()) {
+            stage.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics" + stages.values();
+    }
+
+    private static String currentPoolName() {
+        String name = POOL_NAMES.get();
+        if (name == null) {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof ForkJoinWorkerThread) {
+                ForkJoinPool pool = ((ForkJoinWorkerThread) thread).getPool();
+                name = pool == ForkJoinPool.commonPool() ? "ForkJoinPool.commonPool" : "ForkJoinPool@" + Integer.toHexString(System.identityHashCode(pool));
+            } else {
+                // strip the thread number, e.g. pool-1-thread-3 -> pool-1-thread
+                name = thread.getName().replaceAll("[-#]?\\d+$", "");
+            }
+            POOL_NAMES.set(name);
+        }
+        return name;
+    }
+
+    /**
+     * The metrics recorded for one named stage.
+     */
+    public static final class Stage {
+        private final String name;
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private final LatencyHistogram execution = new LatencyHistogram();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final Map<String, LongAdder> pools = new ConcurrentHashMap<>();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        private long start() {
+            return System.nanoTime();
+        }
+
+        private void succeeded(long start) {
+            execution.record(System.nanoTime() - start);
+            successes.increment();
+            ranOn(currentPoolName());
+        }
+
+        private void failed(long start) {
+            execution.record(System.nanoTime() - start);
+            failures.increment();
+            ranOn(currentPoolName());
+        }
+
+        private void ranOn(String pool) {
+            LongAdder count = pools.get(pool);
+            if (count == null) {
+                count = pools.computeIfAbsent(pool, it -> new LongAdder());
+            }
+            count.increment();
+        }
+
+        private void reset() {
+            queueWait.reset();
+            execution.reset();
+            successes.reset();
+            failures.reset();
+            pools.clear();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the time tasks of this stage waited in the queue of a wrapped executor.
+         */
+        public LatencyHistogram getQueueWait() {
+            return queueWait;
+        }
+
+        /**
+         * Returns the time the function of this stage took to execute.
+         */
+        public LatencyHistogram getExecution() {
+            return execution;
+        }
+
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * Returns how often this stage ran on each thread pool, by pool name.
+         */
+        public Map<String, LongAdder> getPools() {
+            return Collections.unmodifiableMap(pools);
+        }
+
+        @Override
+        public String toString() {
+            return "Stage{" + "name=" + name + ", successes=" + getSuccesses() + ", failures=" + getFailures()
+                    + ", queueWait=" + queueWait + ", execution=" + execution + ", pools=" + pools + '}';
+        }
+    }
+}
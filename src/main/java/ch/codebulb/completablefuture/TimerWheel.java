@@ -0,0 +1,292 @@
+package ch.codebulb.completablefuture;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel running delayed tasks on a single daemon thread.
+ * Scheduling and cancelling a task are O(1): both just enqueue the task,
+ * and the timer thread moves it in or out of its bucket on the next tick.
+ * Tasks are run on the timer thread and must thus be short, e.g. just
+ * complete a CompletableFuture or hand off work to an executor.
+ *
+ * <p>Delays are rounded up to the next tick.  While no task is scheduled,
+ * the timer thread is parked rather than ticking.
+ *
+ * <p>A manual timer wheel has no timer thread and runs in virtual time
+ * instead, which only passes by {@link #advance(long)}; tests install one
+ * as the shared timer wheel to run timing-dependent code instantly and
+ * reproducibly.
+ */
+final class TimerWheel {
+    private static final TimerWheel SHARED = new TimerWheel("CompletableFutureUtil-timer", 10, TimeUnit.MILLISECONDS, 512);
+    private static volatile TimerWheel current = SHARED;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Thread worker;
+    private volatile boolean idle;
+    private final boolean manual;
+    private final long startNanos;
+    private volatile long virtualNanos;
+    // only accessed by the timer thread, or by the thread advancing a manual timer wheel
+    private long tick;
+    private int size;
+
+    TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(name, tickDuration, unit, ticksPerWheel, false);
+    }
+
+    /**
+     * Creates a timer wheel, which runs in virtual time if {@code manual}.
+     */
+    TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel, boolean manual) {
+        if (Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("ticksPerWheel must be a power of 2: " + ticksPerWheel);
+        }
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = ticksPerWheel - 1;
+        this.manual = manual;
+        this.startNanos = manual ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Returns the timer wheel shared by all of the combinators of
+     * {@link CompletableFutureUtil}, with a tick of 10 milliseconds.
+     */
+    static TimerWheel shared() {
+        return current;
+    }
+
+    /**
+     * Replaces the shared timer wheel, e.g. by a manual one, or restores
+     * the default one if {@code null}.
+     */
+    static void setShared(TimerWheel timerWheel) {
+        current = timerWheel == null ? SHARED : timerWheel;
+    }
+
+    /**
+     * Returns the current time of the shared timer wheel in nanoseconds, to
+     * be used like {@link System#nanoTime()} by code whose timing should
+     * follow a manual timer wheel.
+     */
+    static long nanoTime() {
+        TimerWheel timerWheel = current;
+        return timerWheel.manual ? timerWheel.virtualNanos : System.nanoTime();
+    }
+
+    /**
+     * Schedules the given task to run on the timer thread after the given delay.
+     *
+     * @return a handle which allows cancelling the task
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!manual && started.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        }
+        // cap the delay so that the deadline can't overflow
+        long delayNanos = Math.min(unit.toNanos(Math.max(delay, 0)), Long.MAX_VALUE / 2);
+        Timeout timeout = new Timeout(task, elapsedNanos() + delayNanos);
+        pending.add(timeout);
+        if (idle) {
+            LockSupport.unpark(worker);
+        }
+        return timeout;
+    }
+
+    /**
+     * Advances the virtual time of a manual timer wheel by the given
+     * duration, running the tasks which expire meanwhile on the calling
+     * thread, tick by tick.  Tasks scheduled by these tasks run in a later
+     * tick.  Must not be called concurrently.
+     */
+    void advance(long nanos) {
+        if (!manual) {
+            throw new IllegalStateException("Not a manual timer wheel: " + name);
+        }
+        long target = virtualNanos + Math.max(nanos, 0);
+        // unlike the timer thread, expire each tick at its very start, so that tasks run on time
+        while (tick * tickNanos <= target) {
+            if (size == 0 && pending.isEmpty()) {
+                // nothing is in the wheel, so it may just skip the idle ticks
+                tick = target / tickNanos + 1;
+                break;
+            }
+            virtualNanos = tick * tickNanos;
+            removeCancelled();
+            addPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+        virtualNanos = target;
+    }
+
+    private long elapsedNanos() {
+        return manual ? virtualNanos : System.nanoTime() - startNanos;
+    }
+
+    private void run() {
+        while (true) {
+            if (size == 0 && pending.isEmpty()) {
+                idle = true;
+                // re-check after publishing the flag so that no schedule() is missed
+                while (pending.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // nothing is in the wheel, so it may just skip the idle ticks
+                tick = (System.nanoTime() - startNanos) / tickNanos;
+            }
+            waitForNextTick();
+            removeCancelled();
+            addPending();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void waitForNextTick() {
+        long deadline = (tick + 1) * tickNanos;
+        long now;
+        while ((now = System.nanoTime() - startNanos) < deadline) {
+            LockSupport.parkNanos(this, deadline - now);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                size--;
+            }
+        }
+    }
+
+    private void addPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.get() != Timeout.WAITING) {
+                continue;
+            }
+            // round up to the next tick, but never schedule into the past
+            long deadlineTick = Math.max((timeout.deadlineNanos + tickNanos - 1) / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            wheel[(int) (deadlineTick & mask)].add(timeout);
+            size++;
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                size--;
+                if (timeout.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable ex) {
+                        // a failing task must not stop the timer thread
+                    }
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link TimerWheel}; the inherited value holds its state.
+     */
+    final class Timeout extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        // only accessed by the timer thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancels the task unless it has already run.
+         *
+         * @return {@code true} if the task has been cancelled by this call
+         */
+        boolean cancel() {
+            if (!compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        boolean isExpired() {
+            return get() == EXPIRED;
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts hashed to one tick of the wheel.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ch.codebulb.completablefuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs the asynchronous tasks started by {@link CompletableFutureUtil}.
+ * This version starts a new virtual thread per task, so tasks which block
+ * on I/O don't tie up the threads of a pool.
+ */
+final class AsyncBackend {
+    private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+    
+    private AsyncBackend() {}
+    
+    static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, VIRTUAL_THREADS);
+    }
+    
+    static CompletableFuture<Void> runAsync(Runnable runnable) {
+        return CompletableFuture.runAsync(runnable, VIRTUAL_THREADS);
+    }
+}
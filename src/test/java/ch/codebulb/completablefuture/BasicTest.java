@@ -88,6 +88,25 @@ public class BasicTest {
         
     }
     
+    @Test
+    public void testPromiseWithAsyncBackend() {
+        // 1a - build the task; runs on a virtual thread on Java 21+
+        final CompletableFuture<String> retrieveName = CompletableFutureUtil.supplyAsync(() -> {
+            sleep(WAIT_MILIS);
+            return "Promise";
+        });
+        // 1b - define task result processing
+        final CompletableFuture<Void> printed = retrieveName.thenAccept(it -> print(it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            printed.join();
+
+            // TEST --- assertions -- remove from production code
+            assertTrue(called);
+        });
+    }
+    
     @Test
     public void testPromiseExplicitlyFulfilled() {
         // 1a - build the task
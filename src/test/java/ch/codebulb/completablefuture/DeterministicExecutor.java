@@ -0,0 +1,71 @@
+package ch.codebulb.completablefuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which queues its tasks until the test runs them, on the
+ * test's thread.  By default, tasks run in submission order; with a seed,
+ * each step runs a task picked at random among the queued ones, so that
+ * running the same scenario with different seeds explores different
+ * orders, and a failing order is reproduced by its seed.
+ */
+public class DeterministicExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Random random;
+
+    /**
+     * Creates an executor running its tasks in submission order.
+     */
+    public DeterministicExecutor() {
+        this.random = null;
+    }
+
+    /**
+     * Creates an executor running its tasks in a random order determined by the given seed.
+     */
+    public DeterministicExecutor(long seed) {
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    /**
+     * Runs the next task, if any.
+     *
+     * @return whether a task was run
+     */
+    public boolean runNext() {
+        Runnable task;
+        synchronized (this) {
+            if (tasks.isEmpty()) {
+                return false;
+            }
+            task = tasks.remove(random == null ? 0 : random.nextInt(tasks.size()));
+        }
+        task.run();
+        return true;
+    }
+
+    /**
+     * Runs tasks until none is queued anymore, including the tasks queued by these tasks.
+     *
+     * @return the number of tasks run
+     */
+    public int runAll() {
+        int count = 0;
+        while (runNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized int getQueued() {
+        return tasks.size();
+    }
+}
@@ -0,0 +1,27 @@
+package ch.codebulb.completablefuture;
+
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks the Java 21 layer of the multi-release JAR.  Only runs against
+ * the packaged JAR on Java 21 or later, as by the java21 profile; it is
+ * skipped when the classes are loaded from a directory, where the layer
+ * is never picked up.
+ */
+public class MultiReleaseJarTest {
+    @Test
+    public void testVirtualThreadBackend() throws Exception {
+        Assume.assumeTrue("jar".equals(AsyncBackend.class.getResource("AsyncBackend.class").getProtocol()));
+        Assume.assumeTrue(!System.getProperty("java.specification.version").startsWith("1.")
+                && Integer.parseInt(System.getProperty("java.specification.version")) >= 21);
+        // 1a - build the task
+        final CompletableFuture<Thread> promise = CompletableFutureUtil.supplyAsync(() -> Thread.currentThread());
+
+        // TEST --- assertions -- remove from production code
+        // Thread.isVirtual() is called reflectively, as the tests are compiled for Java 8
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(promise.join()));
+    }
+}
@@ -0,0 +1,286 @@
+package ch.codebulb.completablefuture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the bytes allocated per operation by the combinators and common
+ * chain shapes against the budgets stored in {@code allocation-budgets-<version>.properties},
+ * so that an allocation regression fails the build like a functional one.
+ * As the allocations of the JDK's own classes differ from one Java version
+ * to the next, the budgets are measured per Java feature version; a version
+ * without budgets of its own is checked against those of the nearest version
+ * which has them.  The tests are skipped on a VM which can't count allocations.
+ * An operation builds its inputs, combines them, and completes them, all on
+ * the test's thread, whose allocation counter is read before and after a
+ * run of operations; the best of several runs is taken, after a warm-up.
+ */
+public class PromiseAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int OPERATIONS = 10_000;
+    private static final int RUNS = 5;
+    private static final String VALUE = "Future explicitly fulfilled";
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Properties budgets;
+    private Object sink;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        String specification = System.getProperty("java.specification.version");
+        int version = Integer.parseInt(specification.startsWith("1.") ? specification.substring(2) : specification);
+        budgets = new Properties();
+        // the nearest version with budgets, preferring the older one on a tie
+        for (int distance = 0; distance <= version; distance++) {
+            for (int candidate : new int[] {version - distance, version + distance}) {
+                try (InputStream in = PromiseAllocationTest.class.getResourceAsStream("allocation-budgets-" + candidate + ".properties")) {
+                    if (in != null) {
+                        if (candidate != version) {
+                            System.err.println("No allocation budgets for Java " + version + ", using those of Java " + candidate);
+                        }
+                        budgets.load(in);
+                        return;
+                    }
+                }
+            }
+        }
+        Assert.fail("No allocation budgets");
+    }
+
+    @Test
+    public void testThenApplyThenAccept() {
+        assertWithinBudget("thenApply.thenAccept", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<Void> chained = promise.thenApply(it -> it).thenAccept(it -> {});
+            promise.complete(VALUE);
+            return chained;
+        });
+    }
+
+    @Test
+    public void testHandleWhenComplete() {
+        assertWithinBudget("handle.whenComplete", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> chained = promise.handle((it, err) -> it).whenComplete((it, err) -> {});
+            promise.complete(VALUE);
+            return chained;
+        });
+    }
+
+    @Test
+    public void testPipeline() {
+        final Pipeline<String, String> pipeline = Pipeline.<String> start().
+                thenApply(it -> it).
+                thenApply(it -> it).
+                whenComplete((it, err) -> {});
+        assertWithinBudget("thenApply.thenApply.whenComplete", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> chained = promise.thenApply(it -> it).thenApply(it -> it).whenComplete((it, err) -> {});
+            promise.complete(VALUE);
+            return chained;
+        });
+        assertWithinBudget("pipeline.thenApply.thenApply.whenComplete", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> fused = pipeline.attach(promise);
+            promise.complete(VALUE);
+            return fused;
+        });
+    }
+
+    @Test
+    public void testLeanPromiseThenApplyThenAccept() {
+        assertWithinBudget("promise.thenApply.thenAccept", () -> {
+            Promise<String> promise = new Promise<>();
+            Promise<Void> chained = promise.thenApply(it -> it).thenAccept(it -> {});
+            promise.complete(VALUE);
+            return chained;
+        });
+    }
+
+    @Test
+    public void testAllOf() {
+        assertWithinBudget("allOf.2", () -> combine(2, it -> CompletableFutureUtil.allOf(it)));
+        assertWithinBudget("allOf.16", () -> combine(16, it -> CompletableFutureUtil.allOf(it)));
+    }
+
+    @Test
+    public void testAllOfFailFast() {
+        assertWithinBudget("allOfFailFast.16", () -> combine(16, it -> CompletableFutureUtil.allOfFailFast(it, false)));
+    }
+
+    @Test
+    public void testAllOfCancellable() {
+        assertWithinBudget("allOfCancellable.16", () -> combine(16, it -> CompletableFutureUtil.allOfCancellable(it)));
+    }
+
+    @Test
+    public void testAnyOf() {
+        assertWithinBudget("anyOf.16", () -> combine(16, it -> CompletableFutureUtil.anyOf(it)));
+        assertWithinBudget("anyOf.cancelLosers.16", () -> combine(16, it -> CompletableFutureUtil.anyOf(it, true)));
+    }
+
+    @Test
+    public void testFirstK() {
+        assertWithinBudget("firstK.8.16", () -> combine(16, it -> CompletableFutureUtil.firstK(8, it)));
+    }
+
+    @Test
+    public void testAllOfWithTimeout() {
+        assertWithinBudget("allOf.timeout.16", () -> combine(16, it -> CompletableFutureUtil.allOf(it, Duration.ofSeconds(30))));
+        assertWithinBudget("anyOf.timeout.16", () -> combine(16, it -> CompletableFutureUtil.anyOf(it, Duration.ofSeconds(30))));
+    }
+
+    @Test
+    public void testReduceAll() {
+        assertWithinBudget("reduceAll.16", () -> combine(16, it -> CompletableFutureUtil.reduceAll(it, 0, (sum, value) -> sum + value.length(), Integer::sum)));
+        assertWithinBudget("reduceAllToInt.16", () -> combine(16, it -> CompletableFutureUtil.reduceAllToInt(it, String::length, 0, Integer::sum)));
+        assertWithinBudget("reduceAllToLong.16", () -> combine(16, it -> CompletableFutureUtil.reduceAllToLong(it, String::length, 0, Long::sum)));
+        assertWithinBudget("reduceAllToDouble.16", () -> combine(16, it -> CompletableFutureUtil.reduceAllToDouble(it, String::length, 0, Double::sum)));
+    }
+
+    @Test
+    public void testForEachCompleted() {
+        assertWithinBudget("forEachCompleted.16", () -> combine(16, it -> CompletableFutureUtil.forEachCompleted(it, value -> {})));
+    }
+
+    @Test
+    public void testMapAsync() {
+        // 16 elements mapped to pending inputs, at most 4 of them in flight
+        assertWithinBudget("mapAsync.4.16", () -> {
+            List<CompletableFuture<String>> cfs = new ArrayList<>(16);
+            CompletableFuture<List<String>> mapped = CompletableFutureUtil.mapAsync(new Iterator<Integer>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < 16;
+                }
+
+                @Override
+                public Integer next() {
+                    return next++;
+                }
+            }, it -> {
+                CompletableFuture<String> cf = new CompletableFuture<>();
+                cfs.add(cf);
+                return cf;
+            }, 4);
+            // completing an input maps the next element, so complete them as they appear
+            for (int i = 0; i < cfs.size(); i++) {
+                cfs.get(i).complete(VALUE);
+            }
+            return mapped;
+        });
+    }
+
+    @Test
+    public void testRetry() {
+        final RetryPolicy policy = RetryPolicy.maxAttempts(3);
+        assertWithinBudget("retry", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> result = CompletableFutureUtil.retry(() -> promise, policy);
+            promise.complete(VALUE);
+            return result;
+        });
+    }
+
+    @Test
+    public void testHedge() {
+        final HedgePolicy policy = HedgePolicy.fixedDelay(Duration.ofSeconds(30));
+        assertWithinBudget("hedge", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> result = CompletableFutureUtil.hedge(() -> promise, policy, 1);
+            promise.complete(VALUE);
+            return result;
+        });
+    }
+
+    @Test
+    public void testInCompletionOrder() {
+        assertWithinBudget("inCompletionOrder.16", () -> combine(16, it -> CompletableFutureUtil.inCompletionOrder(it)));
+    }
+
+    @Test
+    public void testWithTimeout() {
+        assertWithinBudget("withTimeout", () -> {
+            CompletableFuture<String> promise = new CompletableFuture<>();
+            CompletableFuture<String> result = CompletableFutureUtil.withTimeout(promise, Duration.ofSeconds(30));
+            promise.complete(VALUE);
+            return result;
+        });
+    }
+
+    @Test
+    public void testIterateAsync() {
+        assertWithinBudget("iterateAsync.16", () ->
+                CompletableFutureUtil.iterateAsync(0, it -> it < 16, it -> CompletableFuture.completedFuture(it + 1)));
+    }
+
+    @Test
+    public void testAsyncWhile() {
+        assertWithinBudget("asyncWhile.16", () -> {
+            int[] iterations = new int[1];
+            return CompletableFutureUtil.asyncWhile(() -> CompletableFuture.completedFuture(++iterations[0] < 16));
+        });
+    }
+
+    @Test
+    public void testUnfoldAsync() {
+        assertWithinBudget("unfoldAsync.16", () -> CompletableFutureUtil.unfoldAsync(0, it -> CompletableFuture.completedFuture(it),
+                it -> it < 15 ? Optional.of(it + 1) : Optional.empty()));
+    }
+
+    private void assertWithinBudget(String operation, Supplier<Object> op) {
+        String budget = budgets.getProperty(operation);
+        Assert.assertNotNull("No allocation budget for " + operation, budget);
+        for (int i = 0; i < WARMUP; i++) {
+            sink = op.get();
+        }
+        long best = Long.MAX_VALUE;
+        long thread = Thread.currentThread().getId();
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < OPERATIONS; i++) {
+                sink = op.get();
+            }
+            best = Math.min(best, (threads.getThreadAllocatedBytes(thread) - before) / OPERATIONS);
+        }
+        Assert.assertTrue(operation + " allocates " + best + " bytes per operation, over its budget of " + budget,
+                best <= Long.parseLong(budget));
+    }
+
+    /**
+     * Builds the given number of pending inputs, combines them with the
+     * given combinator, and completes them in order.
+     */
+    private static Object combine(int count, Function<List<CompletableFuture<String>>, Object> combinator) {
+        List<CompletableFuture<String>> cfs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cfs.add(new CompletableFuture<>());
+        }
+        Object combined = combinator.apply(cfs);
+        for (CompletableFuture<String> cf : cfs) {
+            cf.complete(VALUE);
+        }
+        return combined;
+    }
+}
@@ -0,0 +1,148 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PromiseBatchTest {
+    private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testBatchBySize() {
+        // 1a - build the task
+        final BatchLoader<Integer, String> loader = new BatchLoader<>(it -> request(it), 2, Duration.ofSeconds(10));
+        // 1b - define task result processing
+        final CompletableFuture<List<String>> promiseCombined =
+                CompletableFutureUtil.allOf(loader.loadMany(Arrays.asList(1, 2, 3, 3)));
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(Arrays.asList("Future 1 fulfilled", "Future 2 fulfilled", "Future 3 fulfilled", "Future 3 fulfilled"),
+                promiseCombined.join());
+        // duplicate keys are only requested once; full batches are dispatched asynchronously, in any order
+        Assert.assertEquals(new HashSet<>(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3))), new HashSet<>(batches));
+    }
+
+    @Test
+    public void testBatchByTime() {
+        // 1a - build the task
+        final BatchLoader<Integer, String> loader = new BatchLoader<>(it -> request(it), 100, Duration.ofMillis(20));
+        // 1b - define task result processing
+        final CompletableFuture<String> promise1 = loader.load(1);
+        final CompletableFuture<String> promise2 = loader.load(2);
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals("Future 1 fulfilled", promise1.join());
+        Assert.assertEquals("Future 2 fulfilled", promise2.join());
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2)), batches);
+    }
+
+    @Test
+    public void testBatchRejected() {
+        // 1a - build the task
+        final BatchLoader<Integer, String> loader = new BatchLoader<>(it -> {
+            CompletableFuture<Map<Integer, String>> promise = new CompletableFuture<>();
+            promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+            return promise;
+        }, 100, Duration.ofSeconds(10));
+        // 1b - define task result processing
+        final CompletableFuture<String> promise = loader.load(1);
+        loader.dispatch();
+
+        // TEST --- assertions -- remove from production code
+        try {
+            promise.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testBatchNull() {
+        // 1a - build the task: the batch function returns null, then a null map
+        final BatchLoader<Integer, String> loaderNull = new BatchLoader<>(it -> null, 100, Duration.ofSeconds(10));
+        final BatchLoader<Integer, String> loaderNullMap = new BatchLoader<>(it -> CompletableFuture.completedFuture(null),
+                100, Duration.ofSeconds(10));
+        // 1b - define task result processing
+        final CompletableFuture<String> promiseNull = loaderNull.load(1);
+        final CompletableFuture<String> promiseNullMap = loaderNullMap.load(1);
+        loaderNull.dispatch();
+        loaderNullMap.dispatch();
+
+        // TEST --- assertions -- remove from production code
+        for (CompletableFuture<String> promise : Arrays.asList(promiseNull, promiseNullMap)) {
+            try {
+                promise.join();
+                fail();
+            } catch (CompletionException ex) {
+                Assert.assertEquals(NullPointerException.class, ex.getCause().getClass());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchConcurrently() {
+        // 1a - build the task
+        final BatchLoader<Integer, String> loader = new BatchLoader<>(it -> request(it), 16, Duration.ofMillis(10));
+        // 1b - define task result processing: many threads load concurrently
+        final List<CompletableFuture<String>> promises = IntStream.range(0, 10_000).parallel().
+                mapToObj(it -> loader.load(it)).collect(Collectors.toList());
+
+        // TEST --- assertions -- remove from production code
+        final List<String> results = CompletableFutureUtil.allOf(promises).join();
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals("Future " + i + " fulfilled", results.get(i));
+        }
+        Assert.assertEquals(10_000, batches.stream().mapToInt(it -> it.size()).sum());
+        Assert.assertTrue(batches.stream().allMatch(it -> it.size() <= 16));
+    }
+
+    @Test(timeout = 10_000)
+    public void testBatchSealerDescheduled() throws Exception {
+        // 1a - build the task
+        final BatchLoader<Integer, String> loader = new BatchLoader<>(it -> request(it), 2, Duration.ofSeconds(10));
+        loader.load(1);
+        // the sealing thread is held right after claiming the seal, before installing the successor batch
+        final Field current = BatchLoader.class.getDeclaredField("current");
+        current.setAccessible(true);
+        final Object batch = ((AtomicReference<?>) current.get(loader)).get();
+        final Field sealed = batch.getClass().getDeclaredField("sealed");
+        final Field claimed = batch.getClass().getDeclaredField("claimed");
+        sealed.setAccessible(true);
+        claimed.setAccessible(true);
+        ((AtomicBoolean) sealed.get(batch)).set(true);
+        ((AtomicInteger) claimed.get(batch)).getAndAdd(2);
+        // 1b - define task result processing: other loads still return, into the successor batch
+        final CompletableFuture<String> promise2 = loader.load(2);
+        final CompletableFuture<String> promise3 = loader.load(3);
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals("Future 2 fulfilled", promise2.join());
+        Assert.assertEquals("Future 3 fulfilled", promise3.join());
+        Assert.assertEquals(Arrays.asList(Arrays.asList(2, 3)), batches);
+    }
+
+    private CompletableFuture<Map<Integer, String>> request(List<Integer> keys) {
+        batches.add(keys);
+        Map<Integer, String> values = new HashMap<>();
+        keys.forEach(it -> values.put(it, "Future " + it + " fulfilled"));
+        return CompletableFuture.completedFuture(values);
+    }
+}
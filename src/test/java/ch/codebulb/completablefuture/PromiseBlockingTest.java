@@ -0,0 +1,70 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PromiseBlockingTest {
+    private static final long WAIT_MILIS = 20;
+    private final List<BlockingDetector.BlockingCall> blockingCalls = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        BlockingDetector.disable();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testDetectBlockingJoinOnPoolThread() {
+        BlockingDetector.enable(it -> blockingCalls.add(it));
+        // 1a - build the task
+        final CompletableFuture<String> promise = BlockingDetector.newFuture();
+        // 1b - define task result processing: a pool thread waits for the promise
+        final CompletableFuture<String> promiseJoined =
+                CompletableFuture.supplyAsync(() -> promise.join(), BlockingDetector.monitoredExecutor(pool));
+
+        // 2 - start the task
+        sleep(WAIT_MILIS);
+        promise.complete("Future explicitly fulfilled");
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals("Future explicitly fulfilled", promiseJoined.join());
+        Assert.assertEquals(1, blockingCalls.size());
+        Assert.assertTrue(blockingCalls.get(0).getBlockedNanos() > 0);
+        // the stack trace points to the blocking call
+        Assert.assertTrue(Arrays.stream(blockingCalls.get(0).getStackTrace()).
+                anyMatch(it -> it.getClassName().equals(PromiseBlockingTest.class.getName())));
+    }
+
+    @Test
+    public void testIgnoreNonBlockingAndUnmonitoredCalls() {
+        BlockingDetector.enable(it -> blockingCalls.add(it));
+        // 1a - build the task
+        final CompletableFuture<String> promise = BlockingDetector.newFuture();
+        promise.complete("Future explicitly fulfilled");
+        final CompletableFuture<String> promisePending = BlockingDetector.newFuture();
+
+        // 2 - start the task: joining a complete promise on a pool thread doesn't block
+        CompletableFuture.supplyAsync(() -> promise.join(), BlockingDetector.monitoredExecutor(pool)).join();
+        // and blocking on an unmonitored thread is fine
+        startThread(() -> {
+            pool.execute(() -> {
+                sleep(WAIT_MILIS);
+                promisePending.complete("Future explicitly fulfilled");
+            });
+            promisePending.join();
+        });
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertTrue(blockingCalls.isEmpty());
+    }
+}
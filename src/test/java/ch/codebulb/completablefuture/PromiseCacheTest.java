@@ -0,0 +1,127 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.Assert;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class PromiseCacheTest {
+    private static final long WAIT_MILIS = 0;
+    private final List<PromiseTestUtil.Completion> completions = new ArrayList<>();
+    private final ConcurrentMap<String, CompletableFuture<String>> requests = new ConcurrentHashMap<>();
+
+    @Test
+    public void testLoadOnce() {
+        // 1a - build the task
+        final AsyncLoadingCache<String, String> cache = new AsyncLoadingCache<>(it -> request(it));
+        // 1b - define task result processing: both callers share the same request
+        final CompletableFuture<String> promise1 = cache.get("Future");
+        final CompletableFuture<String> promise2 = cache.get("Future");
+        final CompletableFuture<Void> promiseCombined =
+                CompletableFutureUtil.allOf(promise1, promise2).thenAccept(all -> all.forEach(it -> print(it)));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            requests.get("Future").complete("Future explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertSame(promise1, promise2);
+            assertSame(promise1, cache.get("Future"));
+            assertEquals(completions, completed("Requested Future"),
+                    completed("Future explicitly fulfilled"), completed("Future explicitly fulfilled"));
+        });
+    }
+
+    @Test
+    public void testRejectedLoadNotCached() {
+        // 1a - build the task
+        final AsyncLoadingCache<String, String> cache = new AsyncLoadingCache<>(it -> request(it));
+        // 1b - define task result processing
+        cache.get("Future").exceptionally(it -> "Recovered").thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            requests.remove("Future").completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+            // the failed request is not cached, so it is requested again
+            cache.get("Future").thenAccept(it -> print(it));
+            requests.get("Future").complete("Future explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Requested Future"), completed("Recovered"),
+                    completed("Requested Future"), completed("Future explicitly fulfilled"));
+        });
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        final AsyncLoadingCache<String, String> cache =
+                new AsyncLoadingCache<>(it -> CompletableFuture.completedFuture(it + " loaded"), 2, null);
+        final CompletableFuture<String> promise1 = cache.get("Future 1");
+        cache.get("Future 2");
+        // reading Future 1 again gives it a second chance
+        cache.get("Future 1");
+        cache.get("Future 3");
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(2, cache.size());
+        assertSame(promise1, cache.get("Future 1"));
+        Assert.assertEquals(Arrays.asList("Future 1 loaded", "Future 3 loaded"),
+                cache.getAll(Arrays.asList("Future 1", "Future 3")).join());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testInvalidatedNotCounted() {
+        final AsyncLoadingCache<String, String> cache =
+                new AsyncLoadingCache<>(it -> CompletableFuture.completedFuture(it + " loaded"), 2, null);
+        final CompletableFuture<String> promise1 = cache.get("Future 1");
+        // invalidated entries still on the eviction queue don't count towards the maximum size
+        for (int i = 0; i < 10; i++) {
+            cache.get("Invalidated");
+            cache.invalidate("Invalidated");
+        }
+        final CompletableFuture<String> promise2 = cache.get("Future 2");
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(2, cache.size());
+        assertSame(promise1, cache.get("Future 1"));
+        assertSame(promise2, cache.get("Future 2"));
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        final AsyncLoadingCache<String, String> cache =
+                new AsyncLoadingCache<>(it -> CompletableFuture.completedFuture(it + " loaded"), Long.MAX_VALUE, Duration.ZERO);
+        final CompletableFuture<String> promise = cache.get("Future");
+
+        // TEST --- assertions -- remove from production code
+        assertTrue(promise != cache.get("Future"));
+        cache.cleanUp();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private CompletableFuture<String> request(String key) {
+        completions.add(completed("Requested " + key));
+        CompletableFuture<String> request = new CompletableFuture<>();
+        requests.put(key, request);
+        return request;
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+}
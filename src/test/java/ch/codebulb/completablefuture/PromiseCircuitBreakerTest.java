@@ -0,0 +1,156 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PromiseCircuitBreakerTest {
+    private final List<PromiseTestUtil.Completion> completions = new ArrayList<>();
+
+    @Test
+    public void testOpenOnFailureRate() {
+        // 1a - build the task: the breaker opens once half of the last 4 calls failed
+        final CircuitBreaker breaker = new CircuitBreaker(4, 0.5, Duration.ofSeconds(10));
+        final int[] calls = new int[1];
+        final Supplier<CompletableFuture<String>> call = breaker.protect(() -> request(calls[0]++ % 2 == 0));
+
+        // 2 - start the task: every other call is rejected by the backend
+        for (int i = 0; i < 4; i++) {
+            call.get().exceptionally(it -> log(it));
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // 1b - define task result processing: the call is rejected right away
+        final CompletableFuture<String> rejected = call.get();
+
+        // TEST --- assertions -- remove from production code
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(CircuitBreaker.OpenException.class, ex.getCause().getClass());
+        }
+        Assert.assertEquals(4, calls[0]);
+        assertEquals(completions, completed("Requested"), completed("Requested"), exception("Promise rejected"),
+                completed("Requested"), completed("Requested"), exception("Promise rejected"));
+    }
+
+    @Test
+    public void testHalfOpen() {
+        // 1a - build the task: the breaker opens on a single failure, for 20 ms
+        final CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofMillis(20));
+        breaker.call(() -> request(false)).exceptionally(it -> log(it));
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // 2 - start the task: after the open duration, a single trial call passes
+        sleep(30);
+        final CompletableFuture<String> trial = new CompletableFuture<>();
+        breaker.call(() -> trial).thenAccept(it -> print(it));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.call(() -> request(true)).isCompletedExceptionally());
+        trial.complete("Future explicitly fulfilled");
+
+        // TEST --- assertions -- remove from production code
+        // the successful trial call closes the breaker
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(completions, completed("Requested"), exception("Promise rejected"), completed("Future explicitly fulfilled"));
+    }
+
+    @Test
+    public void testHalfOpenTrialHangs() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: the breaker opens on a single failure, for 10 s
+            final CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofSeconds(10));
+            breaker.call(() -> request(false)).exceptionally(it -> log(it));
+
+            // 2 - start the task: the trial call never completes
+            time.advance(Duration.ofSeconds(10));
+            breaker.call(() -> new CompletableFuture<String>());
+            Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+            time.advance(Duration.ofSeconds(10));
+
+            // TEST --- assertions -- remove from production code
+            // the hanging trial call opens the breaker again, which lets the next trial call pass
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            time.advance(Duration.ofSeconds(10));
+            breaker.call(() -> request(true)).thenAccept(it -> print(it));
+            Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(completions, completed("Requested"), exception("Promise rejected"), completed("Requested"),
+                    completed("Future explicitly fulfilled"));
+        }
+    }
+
+    @Test
+    public void testHalfOpenTrialNull() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: the breaker opens on a single failure, for 10 s
+            final CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofSeconds(10));
+            breaker.call(() -> request(false)).exceptionally(it -> log(it));
+
+            // 2 - start the task: the Supplier of the trial call returns null
+            time.advance(Duration.ofSeconds(10));
+            final CompletableFuture<String> trial = breaker.call(() -> null);
+
+            // TEST --- assertions -- remove from production code
+            // the null call counts as a failed trial call, which opens the breaker again
+            try {
+                trial.join();
+                fail();
+            } catch (CompletionException ex) {
+                Assert.assertEquals(NullPointerException.class, ex.getCause().getClass());
+            }
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+    }
+
+    @Test
+    public void testOpenOnSlowCallRate() {
+        // 1a - build the task: the breaker opens once both of the last 2 calls took longer than 10 ms
+        final CircuitBreaker breaker = new CircuitBreaker(2, 1, Duration.ofMillis(10), 1, Duration.ofSeconds(10));
+
+        // 2 - start the task
+        for (int i = 0; i < 2; i++) {
+            breaker.call(() -> CompletableFutureUtil.supplyAsync(() -> {
+                sleep(20);
+                return "Future explicitly fulfilled";
+            })).thenAccept(it -> print(it)).join();
+        }
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(completions, completed("Future explicitly fulfilled"), completed("Future explicitly fulfilled"));
+    }
+
+    private CompletableFuture<String> request(boolean fulfil) {
+        completions.add(completed("Requested"));
+        CompletableFuture<String> request = new CompletableFuture<>();
+        if (fulfil) {
+            request.complete("Future explicitly fulfilled");
+        } else {
+            request.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+        }
+        return request;
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+
+    private String log(Throwable ex) {
+        assertTrue(ex instanceof CompletionException);
+        Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+        completions.add(exception(ex.getCause().getMessage()));
+        return null;
+    }
+}
@@ -1,11 +1,24 @@
 package ch.codebulb.completablefuture;
 
 import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class PromiseCombinedTest {
@@ -56,6 +69,328 @@ public class PromiseCombinedTest {
         });
     }
     
+    @Test
+    public void testCombineAllCustomizedEmpty() {
+        // TEST --- assertions -- remove from production code
+        // the results are a fixed-size list, whether there are inputs or not
+        for (List<String> results : Arrays.asList(CompletableFutureUtil.<String> allOf().join(),
+                CompletableFutureUtil.allOf(CompletableFuture.completedFuture("Future explicitly fulfilled")).join())) {
+            try {
+                results.add("Future explicitly fulfilled");
+                fail();
+            } catch (UnsupportedOperationException ex) {
+                // expected
+            }
+        }
+        Assert.assertEquals(Collections.emptyList(), CompletableFutureUtil.allOf(Collections.<CompletableFuture<String>> emptyList()).join());
+    }
+    
+    @Test
+    public void testCombineAllCustomizedWithCollection() {
+        // 1a - build the task
+        final List<CompletableFuture<String>> promises = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            promises.add(new CompletableFuture<>());
+        }
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                CompletableFutureUtil.allOf(promises).
+                        thenAccept(all -> all.stream().forEach(it -> print(it)));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            // complete out of order; results are still reported in input order
+            promises.get(2).complete("Future 3 explicitly fulfilled");
+            promises.get(0).complete("Future 1 explicitly fulfilled");
+            promises.get(1).complete("Future 2 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertEquals(completions, completed("Future 1 explicitly fulfilled"), 
+                    completed("Future 2 explicitly fulfilled"), completed("Future 3 explicitly fulfilled"));
+        });
+    }
+    
+    @Test
+    public void testCombineAllCustomizedRejected() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                CompletableFutureUtil.allOf(Stream.of(promise1, promise2)).
+                        thenAccept(all -> all.stream().forEach(it -> print(it))).
+                        exceptionally(it -> log(it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise2.completeExceptionally(new MyPromiseRejectedException("Promise 2 rejected"));
+            // the combined promise waits for all of its inputs to complete
+            assertFalse(promiseCombined.isDone());
+            promise1.complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertEquals(completions, exception("Promise 2 rejected"));
+        });
+    }
+    
+    @Test
+    public void testCombineAllFailFast() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                CompletableFutureUtil.allOfFailFast(Arrays.asList(promise1, promise2), true).
+                        thenAccept(all -> all.stream().forEach(it -> print(it))).
+                        exceptionally(it -> log(it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise2.completeExceptionally(new MyPromiseRejectedException("Promise 2 rejected"));
+
+            // TEST --- assertions -- remove from production code
+            // the combined promise doesn't wait for promise1, which is cancelled instead
+            assertTrue(promiseCombined.isDone());
+            assertTrue(promise1.isCancelled());
+            assertEquals(completions, exception("Promise 2 rejected"));
+        });
+    }
+    
+    @Test
+    public void testCombineFirstK() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        final CompletableFuture<String> promise3 = new CompletableFuture<>();
+        final CompletableFuture<String> promise4 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Quorum<String>> promiseCombined =
+                CompletableFutureUtil.firstK(2, Arrays.asList(promise1, promise2, promise3, promise4));
+        promiseCombined.thenAccept(quorum -> quorum.getResults().forEach(it -> print(it)));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise3.complete("Future 3 explicitly fulfilled");
+            promise2.completeExceptionally(new MyPromiseRejectedException("Promise 2 rejected"));
+            promise1.complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            // the quorum doesn't wait for promise4, and ignores stragglers
+            promise4.complete("Future 4 explicitly fulfilled");
+            assertEquals(completions, completed("Future 3 explicitly fulfilled"), completed("Future 1 explicitly fulfilled"));
+            Assert.assertEquals(1, promiseCombined.join().getFailures().size());
+            Assert.assertEquals(MyPromiseRejectedException.class, promiseCombined.join().getFailures().get(0).getClass());
+        });
+    }
+
+    @Test
+    public void testCombineFirstKRejected() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        final CompletableFuture<String> promise3 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined =
+                CompletableFutureUtil.firstK(2, Arrays.asList(promise1, promise2, promise3)).
+                        thenAccept(quorum -> quorum.getResults().forEach(it -> print(it))).
+                        exceptionally(it -> log(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise1.completeExceptionally(new MyPromiseRejectedException("Promise 1 rejected"));
+            promise2.completeExceptionally(new MyPromiseRejectedException("Promise 2 rejected"));
+
+            // TEST --- assertions -- remove from production code
+            // 2 of 3 can no longer succeed, so the quorum fails without waiting for promise3
+            assertTrue(promiseCombined.isDone());
+            assertEquals(completions, exception("Promise 2 rejected"));
+        });
+    }
+
+    @Test
+    public void testCombineMapAsync() {
+        // 1a - build the task
+        final List<CompletableFuture<String>> promises = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            promises.add(new CompletableFuture<>());
+        }
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                // at most 2 of the 3 promises are requested at the same time
+                CompletableFutureUtil.mapAsync(Arrays.asList(0, 1, 2), i -> request(promises.get(i)), 2).
+                        thenAccept(all -> all.stream().forEach(it -> print(it)));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertEquals(completions, completed("Requested"), completed("Requested"));
+            promises.get(1).complete("Future 2 explicitly fulfilled");
+            assertEquals(completions, completed("Requested"), completed("Requested"), completed("Requested"));
+            promises.get(2).complete("Future 3 explicitly fulfilled");
+            promises.get(0).complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertEquals(completions.subList(3, completions.size()), completed("Future 1 explicitly fulfilled"), 
+                    completed("Future 2 explicitly fulfilled"), completed("Future 3 explicitly fulfilled"));
+        });
+    }
+    
+    @Test
+    public void testCombineMapAsyncNull() {
+        // 1a - build the task: the function returns null for the second element,
+        // which is only mapped once the first one has completed
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<List<String>> promiseCombined =
+                CompletableFutureUtil.mapAsync(Arrays.asList(1, 2), i -> i == 1 ? promise1 : null, 1);
+        
+        // 2 - start the task
+        promise1.complete("Future 1 explicitly fulfilled");
+        
+        // TEST --- assertions -- remove from production code
+        try {
+            promiseCombined.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(NullPointerException.class, ex.getCause().getClass());
+        }
+    }
+    
+    @Test
+    public void testCombineMapBlocking() {
+        final List<String> results = CompletableFutureUtil.mapBlocking(Arrays.asList(1, 2, 3), it -> {
+            sleep(WAIT_MILIS);
+            return "Future " + it + " fulfilled";
+        }, 2).join();
+        
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(Arrays.asList("Future 1 fulfilled", "Future 2 fulfilled", "Future 3 fulfilled"), results);
+    }
+    
+    @Test
+    public void testCombineMapAsyncAlreadyCompleted() {
+        // mapping many already completed promises must not recurse
+        final List<Integer> results = CompletableFutureUtil.mapAsync(
+                IntStream.range(0, 100_000).iterator(), it -> CompletableFuture.completedFuture(it), 4).join();
+        
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(100_000, results.size());
+        Assert.assertEquals(Integer.valueOf(99_999), results.get(99_999));
+    }
+    
+    @Test
+    public void testCombineInCompletionOrder() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final List<CompletableFuture<String>> promisesInCompletionOrder = 
+                CompletableFutureUtil.inCompletionOrder(Arrays.asList(promise1, promise2));
+        promisesInCompletionOrder.forEach(it -> it.thenAccept(result -> print(result)));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise2.complete("Future 2 explicitly fulfilled");
+            // the first result is available without waiting for promise1
+            assertEquals(completions, completed("Future 2 explicitly fulfilled"));
+            promise1.complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future 2 explicitly fulfilled"), completed("Future 1 explicitly fulfilled"));
+        });
+    }
+    
+    @Test
+    public void testCombineForEachCompleted() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                CompletableFutureUtil.forEachCompleted(Arrays.asList(promise1, promise2), it -> print(it)).
+                        thenAccept(it -> inform(it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise2.complete("Future 2 explicitly fulfilled");
+            promise1.complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertEquals(completions, completed("Future 2 explicitly fulfilled"), 
+                    completed("Future 1 explicitly fulfilled"), completed("Completed"));
+        });
+    }
+    
+    @Test
+    public void testCombineReduceAll() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined = 
+                CompletableFutureUtil.reduceAllToInt(Arrays.asList(promise1, promise2), it -> it.length(), 0, Integer::sum).
+                        thenAccept(it -> print("Length " + it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise2.complete("Future 2 explicitly fulfilled");
+            promise1.complete("Future 1");
+
+            // TEST --- assertions -- remove from production code
+            promiseCombined.join();
+            assertEquals(completions, completed("Length 37"));
+        });
+    }
+    
+    @Test
+    public void testCombineReduceAllToSet() {
+        final List<CompletableFuture<Integer>> promises = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            promises.add(CompletableFuture.supplyAsync(() -> 42));
+        }
+        
+        final Set<Integer> result = CompletableFutureUtil.reduceAll(promises, Collections.<Integer>emptySet(), 
+                (set, it) -> Collections.singleton(it), (a, b) -> union(a, b)).join();
+        final long sum = CompletableFutureUtil.reduceAllToLong(promises, it -> it, 0L, Long::sum).join();
+        
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(Collections.singleton(42), result);
+        Assert.assertEquals(4200L, sum);
+    }
+    
+    @Test
+    public void testCombineAllWithTimeout() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<List<String>> promiseCombined = 
+                CompletableFutureUtil.allOf(Arrays.asList(promise1, promise2), Duration.ofMillis(20));
+        
+        // 2 - start the task: promise2 is never fulfilled
+        promise1.complete("Future 1 explicitly fulfilled");
+        
+        // TEST --- assertions -- remove from production code
+        try {
+            promiseCombined.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(TimeoutException.class, ex.getCause().getClass());
+        }
+    }
+    
     @Test
     public void testCombine2Promises() {
         // 1a - build the task
@@ -156,7 +491,71 @@ public class PromiseCombinedTest {
             assertEquals(completions, completed("Future 1 explicitly fulfilled"));
         });
     }
-    
+
+    @Test
+    public void testCombineAnyCancelLosers() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseCombined =
+                CompletableFutureUtil.anyOf(Arrays.asList(promise1, promise2), true).thenAccept((it) -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise1.complete("Future 1 explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            // the losing promise2 is cancelled
+            promiseCombined.join();
+            assertTrue(promise2.isCancelled());
+            assertFalse(promise1.isCancelled());
+            assertEquals(completions, completed("Future 1 explicitly fulfilled"));
+        });
+    }
+
+    @Test
+    public void testCombineAllCancellable() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<List<String>> promiseCombined =
+                CompletableFutureUtil.allOfCancellable(Arrays.asList(promise1, promise2));
+        final CompletableFuture<Void> promiseProcessed = CompletableFutureUtil.propagateCancellation(
+                promiseCombined.thenAccept(all -> all.stream().forEach(it -> print(it))), promiseCombined);
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise1.complete("Future 1 explicitly fulfilled");
+            // cancelling the derived stage cancels the combined promise, and thereby promise2
+            promiseProcessed.cancel(true);
+
+            // TEST --- assertions -- remove from production code
+            assertTrue(promiseCombined.isCancelled());
+            assertTrue(promise2.isCancelled());
+            assertFalse(promise1.isCancelled());
+            assertEquals(completions);
+        });
+    }
+
+    @Test
+    public void testCombineAllNotCancellable() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<List<String>> promiseCombined =
+                CompletableFutureUtil.allOf(Arrays.asList(promise1));
+
+        // 2 - start the task: by default, cancellation isn't propagated upstream
+        promiseCombined.cancel(true);
+
+        // TEST --- assertions -- remove from production code
+        assertFalse(promise1.isDone());
+    }
+
     @Test
     public void testCombineAnyOf2Promises() {
         // 1a - build the task
@@ -222,6 +621,25 @@ public class PromiseCombinedTest {
         // do something with input, e.g. print it
     }
     
+    private static <T> Set<T> union(Set<T> set1, Set<T> set2) {
+        Set<T> union = new HashSet<>(set1);
+        union.addAll(set2);
+        return union;
+    }
+    
+    private <T> CompletableFuture<T> request(CompletableFuture<T> promise) {
+        completions.add(completed("Requested"));
+        // do something to start the task, e.g. send a request
+        return promise;
+    }
+    
+    private Void log(Throwable exception) {
+        assertTrue(exception instanceof CompletionException);
+        completions.add(exception(exception.getCause().getMessage()));
+        // do something with exception, e.g. log it
+        return null;
+    }
+    
     private void print(Object input) {
         assertNotNull(input);
         completions.add(completed(input + " as Object"));
@@ -1,11 +1,15 @@
 package ch.codebulb.completablefuture;
 
 import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -200,6 +204,118 @@ public class PromiseEventsTest {
         });
     }
     
+    @Test
+    public void testPipelineEventuallyRejected() {
+        // 1a - build the task
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing: the stages of testChainCallbacksEventuallyRejected(), fused
+        final Pipeline<String, String> pipeline = Pipeline.<String> start().
+                <String> thenApply(it -> {throw new RuntimeException("Promise rejected");}).
+                thenApply(it -> transform(it)).
+                thenApply(it -> transform(it)).
+                whenComplete((it, err) -> {
+                    if (it != null) {
+                        print(it);
+                    } else {
+                        logAccidentalException((CompletionException) err);
+                    }
+                });
+        final CompletableFuture<String> promiseFused = pipeline.attach(promise);
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise.complete("Future explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            try {
+                promiseFused.join();
+                fail();
+            } catch (CompletionException ex) {
+                Assert.assertEquals("Promise rejected", ex.getCause().getMessage());
+                // the exception of the terminal action is suppressed, as in the chain
+                Assert.assertEquals(1, ex.getSuppressed().length);
+            }
+            assertEquals(completions,
+                    exception("Promise rejected"));
+        });
+    }
+    
+    @Test
+    public void testPipelineMatchesChain() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing: the same stages, chained and fused
+        final CompletableFuture<String> promiseChained = promise1.
+                thenApply(it -> transform(it)).
+                exceptionally(it -> recover(it)).
+                <String> thenApply(it -> {throw new MyPromiseRejectedRuntimeException("Promise rejected");}).
+                handle((it, err) -> recover(err)).
+                thenApply(it -> transform(it));
+        final CompletableFuture<String> promiseFused = Pipeline.<String> start().
+                thenApply(it -> transform(it)).
+                exceptionally(it -> recover(it)).
+                <String> thenApply(it -> {throw new MyPromiseRejectedRuntimeException("Promise rejected");}).
+                handle((it, err) -> recover(err)).
+                thenApply(it -> transform(it)).
+                attach(promise2);
+        
+        // 2 - start the task
+        promise1.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+        final List<PromiseTestUtil.Completion> chained = new ArrayList<>(completions);
+        completions.clear();
+        promise2.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(chained, completions);
+        assertEquals(completions, exception("CompletionException: MyPromiseRejectedException"),
+                exception("CompletionException: MyPromiseRejectedRuntimeException"), completed("Recovered"));
+        Assert.assertEquals(promiseChained.join(), promiseFused.join());
+    }
+    
+    @Test
+    public void testExceptionallyUnwrapped() {
+        // 1a - build the task: rejected with a preallocated, stackless exception
+        final RejectedException rejection = new RejectedException("Promise rejected");
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing: the handler is passed the exception itself
+        final CompletableFuture<String> promiseChained = promise.
+                thenApply(it -> transform(it)).
+                whenComplete((it, err) -> {throw new RuntimeException("Accidental exception");});
+        CompletableFutureUtil.exceptionally(promiseChained, it -> fixRejection(it)).thenAccept(it -> print(it));
+        
+        // 2 - start the task
+        promise.completeExceptionally(rejection);
+
+        // TEST --- assertions -- remove from production code
+        assertEquals(completions, exception("Promise rejected"), completed("Recovered"));
+        // the shared exception is left as is
+        Assert.assertEquals(0, rejection.getStackTrace().length);
+        Assert.assertEquals(0, rejection.getSuppressed().length);
+    }
+    
+    @Test
+    public void testHandleUnwrapped() {
+        // 1a - build the task
+        final CompletableFuture<String> promise1 = new CompletableFuture<>();
+        final CompletableFuture<String> promise2 = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<String> promiseHandled1 = CompletableFutureUtil.handle(promise1.thenApply(it -> transform(it)),
+                (it, err) -> err == null ? it : fixRejection(err));
+        final CompletableFuture<String> promiseHandled2 = CompletableFutureUtil.handle(promise2.thenApply(it -> transform(it)),
+                (it, err) -> err == null ? it : fixRejection(err));
+        
+        // 2 - start the task
+        promise1.complete("Future explicitly fulfilled");
+        promise2.completeExceptionally(new RejectedException("Promise rejected"));
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals("Future explicitly fulfilled TRANSFORMED", promiseHandled1.join());
+        Assert.assertEquals("Recovered", promiseHandled2.join());
+        assertEquals(completions, completed("Future explicitly fulfilled"), exception("Promise rejected"));
+    }
+    
     @Test
     public void testExceptionHandlingWithCallbacks() throws InterruptedException, ExecutionException {
         String output = CompletableFuture.supplyAsync(() -> {
@@ -253,6 +369,165 @@ public class PromiseEventsTest {
         });
     }
     
+    @Test
+    public void testRejectOnTimeout() {
+        // 1a - build the task
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseWithTimeout = 
+                CompletableFutureUtil.withTimeout(promise, Duration.ofMillis(20)).
+                        whenComplete((it, err) -> logTimeout(err)).
+                        thenAccept(it -> print(it));
+        
+        // 2 - start the task: the promise is never fulfilled
+        
+        // TEST --- assertions -- remove from production code
+        try {
+            promiseWithTimeout.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(TimeoutException.class, ex.getCause().getClass());
+        }
+        Assert.assertFalse(promise.isDone());
+        assertEquals(completions, exception("Timed out"));
+    }
+    
+    @Test
+    public void testFulfilBeforeTimeout() {
+        // 1a - build the task
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promiseWithTimeout = 
+                CompletableFutureUtil.withTimeout(promise, Duration.ofSeconds(10)).thenAccept(it -> print(it));
+        
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise.complete("Future explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseWithTimeout.join();
+            assertEquals(completions, completed("Future explicitly fulfilled"));
+        });
+    }
+    
+    @Test
+    public void testRejectWithRetry() {
+        // 1a - build the task: the first two attempts are rejected
+        final AtomicInteger attempts = new AtomicInteger();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = CompletableFutureUtil.retry(() -> attempt(attempts.incrementAndGet()), 
+                RetryPolicy.maxAttempts(3).withBackoff(Duration.ofMillis(10), 2, Duration.ofMillis(100)).withJitter(0.5)).
+                thenAccept(it -> print(it));
+        
+        // 2 - start the task
+        promise.join();
+        
+        // TEST --- assertions -- remove from production code
+        assertEquals(completions, exception("Promise 1 rejected"), exception("Promise 2 rejected"), 
+                completed("Future 3 explicitly fulfilled"));
+    }
+    
+    @Test
+    public void testRejectWithRetryNotRetryable() {
+        // 1a - build the task: only runtime exceptions are worth a retry
+        final AtomicInteger attempts = new AtomicInteger();
+        // 1b - define task result processing
+        final CompletableFuture<String> promise = CompletableFutureUtil.retry(() -> attempt(attempts.incrementAndGet()), 
+                RetryPolicy.maxAttempts(3).retryOn(RuntimeException.class));
+        
+        // 2 - start the task
+        
+        // TEST --- assertions -- remove from production code
+        try {
+            promise.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+        }
+        assertEquals(completions, exception("Promise 1 rejected"));
+    }
+
+    @Test
+    public void testFulfilWithHedge() {
+        // 1a - build the task: the first call hangs, the backup call answers
+        final List<CompletableFuture<String>> calls = new ArrayList<>();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = CompletableFutureUtil.hedge(() -> {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            synchronized (calls) {
+                calls.add(call);
+                if (calls.size() > 1) {
+                    call.complete("Future " + calls.size() + " explicitly fulfilled");
+                }
+            }
+            return call;
+        }, HedgePolicy.fixedDelay(Duration.ofMillis(20)), 2).
+                thenAccept(it -> print(it));
+
+        // 2 - start the task
+        promise.join();
+
+        // TEST --- assertions -- remove from production code
+        // the first call lost and is cancelled, and no further backup call is made
+        sleep(50);
+        assertEquals(completions, completed("Future 2 explicitly fulfilled"));
+        Assert.assertEquals(2, calls.size());
+        assertTrue(calls.get(0).isCancelled());
+    }
+
+    @Test
+    public void testRejectWithHedge() {
+        // 1a - build the task: a rejected call is hedged right away
+        final AtomicInteger attempts = new AtomicInteger();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = CompletableFutureUtil.hedge(() -> attempt(attempts.incrementAndGet()),
+                HedgePolicy.fixedDelay(Duration.ofSeconds(10)), 2).
+                thenAccept(it -> print(it));
+
+        // 2 - start the task
+        promise.join();
+
+        // TEST --- assertions -- remove from production code
+        assertEquals(completions, exception("Promise 1 rejected"), exception("Promise 2 rejected"),
+                completed("Future 3 explicitly fulfilled"));
+    }
+
+    @Test
+    public void testRejectWithHedgeNullCall() {
+        // 1a - build the task: the Supplier returns null, first right away, then for a backup call
+        final AtomicInteger attempts = new AtomicInteger();
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = CompletableFutureUtil.hedge(() -> attempts.incrementAndGet() < 3 ? null : attempt(3),
+                HedgePolicy.fixedDelay(Duration.ofSeconds(10)), 2).
+                thenAccept(it -> print(it));
+
+        // 2 - start the task
+        promise.join();
+
+        // TEST --- assertions -- remove from production code
+        // a null call counts as a failed call
+        assertEquals(completions, completed("Future 3 explicitly fulfilled"));
+    }
+
+    @Test
+    public void testAdaptiveHedgePolicy() {
+        // 1a - build the task
+        final HedgePolicy policy = HedgePolicy.adaptive(95, Duration.ofSeconds(1)).
+                withDelayBounds(Duration.ofNanos(500_000), Duration.ofSeconds(2));
+
+        // 2 - start the task: the policy waits for the initial delay until it has seen enough calls
+        Assert.assertEquals(Duration.ofSeconds(1), policy.getDelay());
+        for (int i = 0; i < 100; i++) {
+            policy.record(i < 95 ? 1_000_000 : 50_000_000);
+        }
+
+        // TEST --- assertions -- remove from production code
+        // the p95 of the latencies, within the precision of the histogram
+        long delay = policy.getDelay().toNanos();
+        assertTrue("delay: " + delay, delay >= 1_000_000 && delay < 1_125_000);
+    }
+
     @Test
     public void testChainCallbacksWithCompose() {
         // 1a - build the task
@@ -274,6 +549,61 @@ public class PromiseEventsTest {
         });
     }
     
+    @Test
+    public void testChainCallbacksWithComposeInLoop() {
+        // chaining 100k already fulfilled promises with thenCompose may overflow the stack
+        final int count = CompletableFutureUtil.iterateAsync(0, it -> it < 100_000, 
+                it -> CompletableFuture.completedFuture(it + 1)).join();
+        
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(100_000, count);
+    }
+    
+    @Test
+    public void testChainCallbacksWithComposeInAsyncLoop() {
+        // 1a - build the task: each iteration waits for a promise fulfilled by another thread
+        final AtomicInteger iterations = new AtomicInteger();
+        // 1b - define task result processing
+        final CompletableFuture<Void> loop = CompletableFutureUtil.asyncWhile(() -> 
+                CompletableFuture.supplyAsync(() -> iterations.incrementAndGet() < 1_000));
+        
+        // TEST --- assertions -- remove from production code
+        loop.join();
+        Assert.assertEquals(1_000, iterations.get());
+    }
+    
+    @Test
+    public void testChainCallbacksWithComposeUnfolded() {
+        // 1a - build the task: fetch 100k pages, each one holding the token of the next one
+        // 1b - define task result processing
+        final CompletableFuture<List<Integer>> pages = CompletableFutureUtil.unfoldAsync(0, 
+                token -> CompletableFuture.completedFuture(token), 
+                page -> page < 99_999 ? Optional.of(page + 1) : Optional.empty());
+        
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(100_000, pages.join().size());
+        Assert.assertEquals(Integer.valueOf(99_999), pages.join().get(99_999));
+    }
+    
+    @Test
+    public void testChainCallbacksWithComposeInLoopRejected() {
+        // 1a - build the task
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<String> loop = CompletableFutureUtil.iterateAsync("Future", it -> true, it -> promise);
+        
+        // 2 - start the task
+        promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+        
+        // TEST --- assertions -- remove from production code
+        try {
+            loop.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+        }
+    }
+    
     private void print(String input) {
         assertNotNull(input);
         completions.add(completed(input));
@@ -302,6 +632,36 @@ public class PromiseEventsTest {
         throw new RuntimeException(ex);
     }
     
+    private CompletableFuture<String> attempt(int attempt) {
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        if (attempt < 3) {
+            completions.add(exception("Promise " + attempt + " rejected"));
+            promise.completeExceptionally(new MyPromiseRejectedException("Promise " + attempt + " rejected"));
+        } else {
+            promise.complete("Future " + attempt + " explicitly fulfilled");
+        }
+        return promise;
+    }
+    
+    private void logTimeout(Throwable ex) {
+        assertNotNull(ex);
+        Assert.assertEquals(TimeoutException.class, ex.getClass());
+        completions.add(exception("Timed out"));
+    }
+    
+    private String recover(Throwable ex) {
+        assertNotNull(ex);
+        completions.add(exception(ex.getClass().getSimpleName() + ": " + ex.getCause().getClass().getSimpleName()));
+        return "Recovered";
+    }
+    
+    private String fixRejection(Throwable ex) {
+        Assert.assertNotNull(ex);
+        Assert.assertEquals(RejectedException.class, ex.getClass());
+        completions.add(exception(ex.getMessage()));
+        return "Recovered";
+    }
+    
     private String fix(Throwable ex) {
         Assert.assertNotNull(ex);
         Assert.assertEquals(MyPromiseRejectedException.class, ex.getClass());
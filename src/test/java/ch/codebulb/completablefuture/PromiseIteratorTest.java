@@ -0,0 +1,142 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PromiseIteratorTest {
+    private static final long WAIT_MILIS = 0;
+    private final List<PromiseTestUtil.Completion> completions = Collections.synchronizedList(new ArrayList<>());
+    private final List<CompletableFuture<String>> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testPaged() {
+        // 1a - build the task: 3 pages
+        final AsyncIterator<String> pages = AsyncIterator.paged(1, it -> fetch(it), it -> nextPage(it, 3));
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = pages.forEach(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            for (int i = 0; i < 3; i++) {
+                requests.get(i).complete("Page " + (i + 1));
+            }
+
+            // TEST --- assertions -- remove from production code
+            promise.join();
+            assertEquals(completions, completed("Requested page 1"), completed("Page 1"),
+                    completed("Requested page 2"), completed("Page 2"), completed("Requested page 3"), completed("Page 3"));
+        });
+    }
+
+    @Test
+    public void testPrefetch() {
+        // 1a - build the task: 5 pages, of which up to 2 are requested ahead
+        final AsyncIterator<String> pages = AsyncIterator.<Integer, String> paged(1, it -> fetch(it), it -> nextPage(it, 5)).prefetch(2);
+        // 1b - define task result processing: consume the first page only
+        final CompletableFuture<Optional<String>> first = pages.next();
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            requests.get(0).complete("Page 1");
+            requests.get(1).complete("Page 2");
+            requests.get(2).complete("Page 3");
+
+            // TEST --- assertions -- remove from production code
+            // pages 2 and 3 are fetched while page 1 is processed, but page 4 isn't
+            Assert.assertEquals("Page 1", first.join().get());
+            assertEquals(completions, completed("Requested page 1"), completed("Requested page 2"), completed("Requested page 3"));
+            Assert.assertEquals("Page 2", pages.next().join().get());
+            assertEquals(completions, completed("Requested page 1"), completed("Requested page 2"), completed("Requested page 3"),
+                    completed("Requested page 4"));
+        });
+    }
+
+    @Test
+    public void testOperators() {
+        // 1a - build the task
+        final AsyncIterator<Integer> numbers = AsyncIterator.fromIterator(IntStream.rangeClosed(1, 10).iterator());
+        // 1b - define task result processing
+        final CompletableFuture<List<Integer>> promise = numbers.
+                filter(it -> it % 2 == 0).
+                mapAsync(it -> CompletableFutureUtil.supplyAsync(() -> it * 10)).
+                prefetch(2).
+                take(3).
+                collect(Collectors.toList());
+
+        // 2 - start the task
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(Arrays.asList(20, 40, 60), promise.join());
+    }
+
+    @Test
+    public void testManyElementsCompletedSynchronously() {
+        // 1a - build the task: the filter drops all elements, which are all available right away
+        final AsyncIterator<Integer> numbers = AsyncIterator.fromIterator(IntStream.range(0, 100_000).iterator()).
+                prefetch(16).
+                filter(it -> it < 0);
+        // 1b - define task result processing
+
+        // 2 - start the task
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(Collections.emptyList(), numbers.collect(Collectors.toList()).join());
+    }
+
+    @Test
+    public void testRejected() {
+        // 1a - build the task: page 2 is rejected
+        final AsyncIterator<String> pages = AsyncIterator.<Integer, String> paged(1, it -> fetch(it), it -> nextPage(it, 3)).prefetch(2);
+        // 1b - define task result processing
+        final CompletableFuture<Void> promise = pages.forEach(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            requests.get(0).complete("Page 1");
+            requests.get(1).completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+
+            // TEST --- assertions -- remove from production code
+            // the page fetched before the failure is still consumed
+            try {
+                promise.join();
+                fail();
+            } catch (CompletionException ex) {
+                Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+            }
+            assertEquals(completions, completed("Requested page 1"), completed("Page 1"), completed("Requested page 2"));
+        });
+    }
+
+    private CompletableFuture<String> fetch(int page) {
+        completions.add(completed("Requested page " + page));
+        CompletableFuture<String> request = new CompletableFuture<>();
+        requests.add(request);
+        return request;
+    }
+
+    private static Optional<Integer> nextPage(String page, int pages) {
+        int number = Integer.parseInt(page.substring("Page ".length()));
+        return number < pages ? Optional.of(number + 1) : Optional.empty();
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+}
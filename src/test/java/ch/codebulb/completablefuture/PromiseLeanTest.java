@@ -0,0 +1,268 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PromiseLeanTest {
+    private static final long WAIT_MILIS = 0;
+    private final List<Completion> completions = new ArrayList<>();
+
+    @Test
+    public void testFulfilAndReject() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.exceptionally(it -> log(it));
+        promise.thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.complete("Future explicitly fulfilled"));
+            assertTrue(promise.isDone());
+            assertFalse(promise.isCompletedExceptionally());
+
+            assertFalse(promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected")));
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future explicitly fulfilled"));
+        });
+    }
+
+    @Test
+    public void testFulfilTwiceWith2Listeners() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.thenAccept(it -> print(it));
+        promise.thenApply(it -> it + " 2").thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.complete("Future explicitly fulfilled"));
+            assertFalse(promise.complete("Future explicitly fulfilled 3"));
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future explicitly fulfilled"), completed("Future explicitly fulfilled 2"));
+        });
+    }
+
+    @Test
+    public void testRejectAndFulfil() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.thenAccept(it -> print(it));
+        promise.exceptionally(it -> log(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected")));
+            assertTrue(promise.isDone());
+            assertTrue(promise.isCompletedExceptionally());
+
+            assertFalse(promise.complete("Future explicitly fulfilled"));
+
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, exception("Promise rejected"));
+        });
+    }
+
+    @Test
+    public void testRejectedChain() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing: the rejection skips the function and is wrapped
+        final Promise<String> recovered = promise.thenApply(it -> it + " 2")
+                .handle((it, ex) -> {
+                    Assert.assertEquals(CompletionException.class, ex.getClass());
+                    return ex.getCause().getMessage();
+                });
+        recovered.thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Promise rejected"));
+        });
+        Assert.assertEquals("Promise rejected", recovered.join());
+    }
+
+    @Test
+    public void testFunctionThrows() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        final Promise<String> failed = promise.thenApply(it -> {
+            throw new MyPromiseRejectedRuntimeException("Promise rejected");
+        });
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise.complete("Future explicitly fulfilled");
+        });
+        // TEST --- assertions -- remove from production code
+        assertTrue(failed.isCompletedExceptionally());
+        try {
+            failed.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(MyPromiseRejectedRuntimeException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testFulfilAndRejectForced() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.exceptionally(it -> log(it));
+        promise.thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.complete("Future explicitly fulfilled"));
+
+            promise.obtrudeException(new MyPromiseRejectedException("Promise rejected"));
+            assertTrue(promise.isCompletedExceptionally());
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future explicitly fulfilled"));
+        });
+        try {
+            promise.join();
+            fail();
+        } catch (CompletionException ex) {
+            Assert.assertEquals(MyPromiseRejectedException.class, ex.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void testRejectAndFulfilForced() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.thenAccept(it -> print(it));
+        promise.exceptionally(it -> log(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.completeExceptionally(new MyPromiseRejectedException("Promise rejected")));
+
+            promise.obtrudeValue("Future explicitly fulfilled");
+            assertTrue(promise.isDone());
+            assertFalse(promise.isCompletedExceptionally());
+
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, exception("Promise rejected"));
+        });
+        Assert.assertEquals("Future explicitly fulfilled", promise.join());
+    }
+
+    @Test
+    public void testCompletableFutureInterop() {
+        // 1a - build the task
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<String> converted = Promise.from(future)
+                .thenCompose(it -> Promise.of(it + " and composed"))
+                .toCompletableFuture();
+        converted.thenAccept(it -> print(it));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            future.complete("Future explicitly fulfilled");
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future explicitly fulfilled and composed"));
+        });
+        Assert.assertEquals("Future explicitly fulfilled and composed", converted.join());
+        Assert.assertEquals("Future explicitly fulfilled", Promise.from(future).getNow(null));
+    }
+
+    @Test
+    public void testFulfilWithPromise() {
+        // 1a - build the task: the value is a promise itself, here a dependent one
+        final Promise<String> inner = Promise.of("Future").thenApply(it -> it + " explicitly fulfilled");
+        final Promise<Promise<String>> promise = new Promise<>();
+        // 1b - define task result processing
+        promise.thenAccept(it -> print(it.join()));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            assertTrue(promise.complete(inner));
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Future explicitly fulfilled"));
+        });
+        Assert.assertSame(inner, promise.join());
+    }
+
+    @Test
+    public void testJoinWaits() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+
+        // 2 - start the task
+        new Thread(() -> {
+            sleep(50);
+            promise.complete("Future explicitly fulfilled");
+        }).start();
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals("Future explicitly fulfilled", promise.join());
+    }
+
+    @Test
+    public void testJoinInterrupted() {
+        // 1a - build the task
+        final Promise<String> promise = new Promise<>();
+        final Thread waiter = Thread.currentThread();
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        // 2 - start the task: the waiting thread is interrupted while waiting
+        new Thread(() -> {
+            sleep(50);
+            waiter.interrupt();
+            sleep(200);
+            promise.complete("Future explicitly fulfilled");
+        }).start();
+        long cpu = threads.getCurrentThreadCpuTime();
+        final String value = promise.join();
+        cpu = threads.getCurrentThreadCpuTime() - cpu;
+
+        // TEST --- assertions -- remove from production code
+        // the interrupt doesn't end the wait, which doesn't spin either, and is restored afterwards
+        Assert.assertEquals("Future explicitly fulfilled", value);
+        assertTrue(Thread.interrupted());
+        assertTrue("CPU time while waiting: " + cpu + " ns", cpu < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+
+    private String log(Throwable ex) {
+        assertNotNull(ex);
+        Assert.assertEquals(MyPromiseRejectedException.class, ex.getClass());
+        completions.add(exception(ex.getMessage()));
+        throw new RuntimeException(ex);
+    }
+}
@@ -0,0 +1,112 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import org.junit.Assert;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class PromiseMetricsTest {
+    private static final long WAIT_MILIS = 0;
+    private final List<PromiseTestUtil.Completion> completions = new ArrayList<>();
+
+    @Test
+    public void testChainCallbacksInstrumented() {
+        final StageMetrics metrics = new StageMetrics(true);
+        final ExecutorService pool = Executors.newSingleThreadExecutor(it -> new Thread(it, "transform-pool-1"));
+        // 1a - build the task
+        final CompletableFuture<String> promise = new CompletableFuture<>();
+        // 1b - define task result processing
+        final CompletableFuture<String> promiseChained = promise.
+                thenApplyAsync(metrics.function("transform", it -> transform(it)), metrics.executor("transform", pool)).
+                <String> thenApply(metrics.function("reject", it -> {throw new RuntimeException("Promise rejected");})).
+                whenComplete(metrics.action("log", (it, err) -> print(err.getCause().getMessage())));
+
+        // 2 - start the task
+        startThread(() -> {
+            sleep(WAIT_MILIS);
+            promise.complete("Future explicitly fulfilled");
+
+            // TEST --- assertions -- remove from production code
+            promiseChained.exceptionally(it -> null).join();
+            assertEquals(completions, completed("Future explicitly fulfilled"), completed("Promise rejected"));
+        });
+        pool.shutdown();
+
+        final StageMetrics.Stage transform = metrics.getStages().get("transform");
+        Assert.assertEquals(1, transform.getSuccesses());
+        Assert.assertEquals(1, transform.getQueueWait().getCount());
+        Assert.assertEquals(1, transform.getExecution().getCount());
+        Assert.assertEquals(1, transform.getPools().get("transform-pool").sum());
+        Assert.assertEquals(1, metrics.getStages().get("reject").getFailures());
+        Assert.assertEquals(1, metrics.getStages().get("log").getSuccesses());
+    }
+
+    @Test
+    public void testResetKeepsWrappedStages() {
+        final StageMetrics metrics = new StageMetrics(true);
+        // a function wrapped once and reused across a reset
+        final Function<String, String> fn = metrics.function("transform", it -> transform(it));
+        fn.apply("Future explicitly fulfilled");
+        metrics.reset();
+
+        // TEST --- assertions -- remove from production code
+        final StageMetrics.Stage transform = metrics.getStages().get("transform");
+        Assert.assertEquals(0, transform.getSuccesses());
+        Assert.assertEquals(0, transform.getExecution().getCount());
+        Assert.assertTrue(transform.getPools().isEmpty());
+        fn.apply("Future explicitly fulfilled");
+        assertSame(transform, metrics.getStages().get("transform"));
+        Assert.assertEquals(1, transform.getSuccesses());
+        Assert.assertEquals(1, transform.getExecution().getCount());
+    }
+
+    @Test
+    public void testDisabledReturnsFunctionAsIs() {
+        final StageMetrics metrics = new StageMetrics(false);
+        final Function<String, String> fn = it -> transform(it);
+
+        // TEST --- assertions -- remove from production code
+        assertSame(fn, metrics.function("transform", fn));
+        Assert.assertTrue(metrics.getStages().isEmpty());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        // TEST --- assertions -- remove from production code
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1_000_000, histogram.getMax());
+        Assert.assertEquals(500_500, histogram.getMean(), 0.001);
+        // values are reported with a relative error below 12.5%
+        Assert.assertEquals(500_000, histogram.getPercentile(50), 500_000 * 0.125);
+        Assert.assertEquals(990_000, histogram.getPercentile(99), 990_000 * 0.125);
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            Assert.assertTrue(LatencyHistogram.lowerBoundOf(bucket) <= value);
+            Assert.assertTrue(LatencyHistogram.lowerBoundOf(bucket + 1) > value);
+        }
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+
+    private String transform(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        return input + " TRANSFORMED";
+    }
+}
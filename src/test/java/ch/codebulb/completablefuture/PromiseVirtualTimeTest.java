@@ -0,0 +1,256 @@
+package ch.codebulb.completablefuture;
+
+import static ch.codebulb.completablefuture.PromiseTestUtil.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class PromiseVirtualTimeTest {
+    private final List<PromiseTestUtil.Completion> completions = new ArrayList<>();
+
+    @Test
+    public void testRetryBackoff() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: the first 2 attempts are rejected, with a backoff of 10 s and 20 s
+            final int[] attempts = new int[1];
+            final RetryPolicy policy = RetryPolicy.maxAttempts(3).withBackoff(Duration.ofSeconds(10), 2, Duration.ofMinutes(1));
+            final CompletableFuture<String> promise = CompletableFutureUtil.retry(() -> request(++attempts[0] == 3), policy);
+            // 1b - define task result processing
+            promise.thenAccept(it -> print(it));
+
+            // 2 - start the task
+            time.advance(Duration.ofMillis(29_999));
+            assertFalse(promise.isDone());
+            time.advance(Duration.ofMillis(1));
+
+            // TEST --- assertions -- remove from production code
+            assertTrue(promise.isDone());
+            Assert.assertEquals(Duration.ofSeconds(30).toNanos(), time.nanoTime());
+            assertEquals(completions, completed("Requested"), completed("Requested"), completed("Requested"),
+                    completed("Future explicitly fulfilled"));
+        }
+    }
+
+    @Test
+    public void testRetryCancelledDuringBackoff() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: the first attempt returns null, which counts as a failed attempt
+            final int[] attempts = new int[1];
+            final RetryPolicy policy = RetryPolicy.maxAttempts(3).withBackoff(Duration.ofSeconds(10), 2, Duration.ofMinutes(1));
+            final CompletableFuture<String> promise = CompletableFutureUtil.retry(() -> ++attempts[0] == 1 ? null : request(true), policy);
+
+            // 2 - start the task, and cancel it during the backoff
+            time.advance(Duration.ofSeconds(5));
+            promise.cancel(false);
+            TimerWheel.shared().advance(Duration.ofSeconds(5).toNanos());
+
+            // TEST --- assertions -- remove from production code
+            // the backoff has been cancelled, so no retry is even queued
+            Assert.assertEquals(0, time.getExecutor().getQueued());
+            Assert.assertEquals(1, attempts[0]);
+            assertTrue(promise.isCancelled());
+        }
+    }
+
+    @Test
+    public void testRetryNullAttempt() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: the first 2 attempts return null, which count as failed attempts
+            final int[] attempts = new int[1];
+            final RetryPolicy policy = RetryPolicy.maxAttempts(3).withBackoff(Duration.ofSeconds(10), 2, Duration.ofMinutes(1));
+            final CompletableFuture<String> promise = CompletableFutureUtil.retry(() -> ++attempts[0] < 3 ? null : request(true), policy);
+            // 1b - define task result processing
+            promise.thenAccept(it -> print(it));
+
+            // 2 - start the task
+            time.advance(Duration.ofSeconds(30));
+
+            // TEST --- assertions -- remove from production code
+            assertEquals(completions, completed("Requested"), completed("Future explicitly fulfilled"));
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task
+            final CompletableFuture<String> future = new CompletableFuture<>();
+            final CompletableFuture<String> promise = CompletableFutureUtil.withTimeout(future, Duration.ofMinutes(5));
+            // 1b - define task result processing
+            promise.exceptionally(it -> log(it));
+
+            // 2 - start the task
+            time.advance(Duration.ofMinutes(5).minusMillis(1));
+            assertFalse(promise.isDone());
+            time.advance(Duration.ofMillis(1));
+
+            // TEST --- assertions -- remove from production code
+            try {
+                promise.join();
+                fail();
+            } catch (CompletionException ex) {
+                Assert.assertEquals(TimeoutException.class, ex.getCause().getClass());
+                Assert.assertEquals(Duration.ofMinutes(5).toNanos(), time.nanoTime());
+            }
+            assertEquals(completions, exception(TimeoutException.class.getName()));
+        }
+    }
+
+    @Test
+    public void testHedgeAndCircuitBreaker() {
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: calls through a breaker opening on a single failure, for 1 minute,
+            // hedged after 1 s; the first call hangs, and the hedge fails
+            final CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofMinutes(1));
+            final List<CompletableFuture<String>> requests = new ArrayList<>();
+            final CompletableFuture<String> promise = CompletableFutureUtil.hedge(breaker.protect(() -> {
+                CompletableFuture<String> request = new CompletableFuture<>();
+                requests.add(request);
+                return request;
+            }), HedgePolicy.fixedDelay(Duration.ofSeconds(1)), 1);
+            // 1b - define task result processing
+            promise.thenAccept(it -> print(it));
+
+            // 2 - start the task
+            time.advance(Duration.ofSeconds(1));
+            Assert.assertEquals(2, requests.size());
+            requests.get(1).completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            requests.get(0).complete("Future explicitly fulfilled");
+            time.advance(Duration.ofMinutes(1));
+
+            // TEST --- assertions -- remove from production code
+            // the breaker only lets a trial call pass once the open duration elapsed in virtual time
+            Assert.assertEquals("Future explicitly fulfilled", promise.join());
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+            breaker.call(() -> CompletableFuture.completedFuture("Trial")).thenAccept(it -> print(it));
+            Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(completions, completed("Future explicitly fulfilled"), completed("Trial"));
+        }
+    }
+
+    @Test
+    public void testAdaptiveHedgeDelay() {
+        // latencies of the backend: lognormal around 10 ms, with a long tail and a p95 of about 50 ms
+        final Random latencies = new Random(42);
+        final long[] sample = new long[100_000];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = latency(latencies);
+        }
+        Arrays.sort(sample);
+        final long p95 = sample[sample.length * 95 / 100];
+        try (VirtualTime time = VirtualTime.install()) {
+            // 1a - build the task: hedge at the p95, starting from a delay far too short
+            final HedgePolicy policy = HedgePolicy.adaptive(95, Duration.ofMillis(5));
+            final int[] calls = new int[1];
+            int hedged = 0;
+            for (int i = 0; i < 2000; i++) {
+                final int before = calls[0];
+                final CompletableFuture<String> promise = CompletableFutureUtil.hedge(() -> {
+                    calls[0]++;
+                    CompletableFuture<String> request = new CompletableFuture<>();
+                    TimerWheel.shared().schedule(() -> request.complete("Future explicitly fulfilled"),
+                            latency(latencies), TimeUnit.MILLISECONDS);
+                    return request;
+                }, policy, 1);
+
+                // 2 - start the task
+                while (!promise.isDone()) {
+                    time.advance(Duration.ofMillis(1));
+                }
+                if (i >= 1000 && calls[0] - before > 1) {
+                    hedged++;
+                }
+            }
+
+            // TEST --- assertions -- remove from production code
+            // the delay converges to the p95 of the backend (within the precision of the histogram),
+            // so that about 5% of the calls are hedged
+            final long delay = policy.getDelay().toMillis();
+            assertTrue("delay " + delay + " ms, p95 " + p95 + " ms", delay >= p95 * 0.95 && delay <= p95 * 1.15);
+            assertTrue(hedged + " of 1000 calls hedged", hedged >= 20 && hedged <= 75);
+        }
+    }
+
+    @Test
+    public void testCompletionOrders() {
+        // explore the completion orders of 3 futures of which one is rejected, each seed reproducing its order
+        final Set<List<String>> orders = new HashSet<>();
+        for (long seed = 0; seed < 1000; seed++) {
+            try (VirtualTime time = VirtualTime.install(seed)) {
+                // 1a - build the task
+                final List<String> order = new ArrayList<>();
+                final CompletableFuture<String> a = complete("a", order, true);
+                final CompletableFuture<String> b = complete("b", order, true);
+                final CompletableFuture<String> c = complete("c", order, false);
+                // 1b - define task result processing
+                final CompletableFuture<List<String>> all = CompletableFutureUtil.allOfFailFast(Arrays.asList(a, b, c), false);
+                final CompletableFuture<Quorum<String>> quorum = CompletableFutureUtil.firstK(2, Arrays.asList(a, b, c));
+
+                // 2 - start the task
+                Assert.assertEquals(3, time.runAll());
+
+                // TEST --- assertions -- remove from production code
+                orders.add(order);
+                assertTrue(all.isCompletedExceptionally());
+                Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(quorum.join().getResults()));
+                Assert.assertEquals(order.indexOf("c") == 2 ? 0 : 1, quorum.join().getFailures().size());
+            }
+        }
+        Assert.assertEquals(6, orders.size());
+    }
+
+    private CompletableFuture<String> complete(String name, List<String> order, boolean fulfil) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFutureUtil.runAsync(() -> {
+            order.add(name);
+            if (fulfil) {
+                future.complete(name);
+            } else {
+                future.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+            }
+        });
+        return future;
+    }
+
+    private static long latency(Random random) {
+        return Math.round(10 * Math.exp(random.nextGaussian()));
+    }
+
+    private CompletableFuture<String> request(boolean fulfil) {
+        completions.add(completed("Requested"));
+        CompletableFuture<String> request = new CompletableFuture<>();
+        if (fulfil) {
+            request.complete("Future explicitly fulfilled");
+        } else {
+            request.completeExceptionally(new MyPromiseRejectedException("Promise rejected"));
+        }
+        return request;
+    }
+
+    private void print(String input) {
+        assertNotNull(input);
+        completions.add(completed(input));
+        // do something with input, e.g. print it
+    }
+
+    private String log(Throwable ex) {
+        assertNotNull(ex);
+        completions.add(exception(ex.getClass().getName()));
+        return null;
+    }
+}
@@ -0,0 +1,95 @@
+package ch.codebulb.completablefuture;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the timing-dependent code of this library in virtual time, as in:
+ * <pre> {@code
+ * try (VirtualTime time = VirtualTime.install()) {
+ *     CompletableFuture<String> promise = CompletableFutureUtil.withTimeout(future, Duration.ofSeconds(30));
+ *     time.advance(Duration.ofSeconds(30));
+ *     assertTrue(promise.isCompletedExceptionally());
+ * }}</pre>
+ *
+ * While installed, the shared timer wheel only advances by {@link #advance(Duration)},
+ * and the asynchronous tasks of {@link CompletableFutureUtil#runAsync(Runnable)}
+ * and {@link CompletableFutureUtil#supplyAsync(java.util.function.Supplier)}
+ * are queued on a {@link DeterministicExecutor}.  Everything runs on the
+ * test's thread, so a scenario takes no real time, and runs the same way
+ * every time.  Closing restores the real timer wheel and backend.
+ */
+public final class VirtualTime implements AutoCloseable {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TimerWheel timerWheel = new TimerWheel("virtual-timer", 1, TimeUnit.MILLISECONDS, 512, true);
+    private final DeterministicExecutor executor;
+
+    private VirtualTime(DeterministicExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Installs virtual time, running asynchronous tasks in submission order.
+     */
+    public static VirtualTime install() {
+        return install(new DeterministicExecutor());
+    }
+
+    /**
+     * Installs virtual time, running asynchronous tasks in a random order
+     * determined by the given seed.
+     */
+    public static VirtualTime install(long seed) {
+        return install(new DeterministicExecutor(seed));
+    }
+
+    private static VirtualTime install(DeterministicExecutor executor) {
+        VirtualTime time = new VirtualTime(executor);
+        TimerWheel.setShared(time.timerWheel);
+        CompletableFutureUtil.setAsyncExecutor(executor);
+        return time;
+    }
+
+    /**
+     * Advances the virtual time by the given duration, millisecond by
+     * millisecond, running the timers which expire and the asynchronous
+     * tasks they start on the way.
+     */
+    public void advance(Duration duration) {
+        executor.runAll();
+        long remaining = duration.toNanos();
+        while (remaining > 0) {
+            long step = Math.min(remaining, TICK_NANOS);
+            timerWheel.advance(step);
+            executor.runAll();
+            remaining -= step;
+        }
+    }
+
+    /**
+     * Runs the queued asynchronous tasks, without advancing the virtual time.
+     *
+     * @return the number of tasks run
+     */
+    public int runAll() {
+        return executor.runAll();
+    }
+
+    /**
+     * Returns the virtual time in nanoseconds.
+     */
+    public long nanoTime() {
+        return TimerWheel.nanoTime();
+    }
+
+    public DeterministicExecutor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        TimerWheel.setShared(null);
+        CompletableFutureUtil.setAsyncExecutor(null);
+    }
+}